@@ -0,0 +1,96 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Adam: each weight keeps running means of its gradient and squared gradient and moves by
+ * {@code learningRate * m / (sqrt(v) + epsilon)}, with both means corrected for their zero start.
+ * Step sizes adapt per weight, so rarely active weights still learn at a useful rate. Adam's
+ * steps are about {@code learningRate} in size whatever the gradient scale, so it wants a much
+ * smaller learning rate than plain SGD, typically 0.001.
+ * <p>
+ * Every weight moves on every update, and the running means and step count are not safe for
+ * concurrent updates, so {@code HogwildTrainer} rejects this optimizer.
+ */
+public final class AdamOptimizer implements Optimizer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final double _beta1;    // Decay rate of the gradient mean
+    private final double _beta2;    // Decay rate of the squared gradient mean
+    private final double _epsilon;  // Added to the denominator to avoid dividing by zero
+
+    private transient double[] _mean;         // Per-weight running mean of the gradient
+    private transient double[] _squaredMean;  // Per-weight running mean of the squared gradient
+    private transient int _steps;             // Updates since the state was created
+
+    /**
+     * Creates an Adam optimizer with the usual settings: beta1 0.9, beta2 0.999, epsilon 1e-8.
+     */
+    public AdamOptimizer() {
+        this(0.9, 0.999, 1e-8);
+    }
+
+    /**
+     * @param beta1 Decay rate of the gradient mean, in [0, 1).
+     * @param beta2 Decay rate of the squared gradient mean, in [0, 1).
+     * @param epsilon Small positive value added to the denominator.
+     */
+    public AdamOptimizer(double beta1, double beta2, double epsilon) {
+        if (!(beta1 >= 0 && beta1 < 1 && beta2 >= 0 && beta2 < 1 && epsilon > 0)) {
+            throw new IllegalArgumentException("Adam needs betas in [0, 1) and a positive epsilon, was "
+                    + beta1 + ", " + beta2 + " and " + epsilon);
+        }
+        _beta1 = beta1;
+        _beta2 = beta2;
+        _epsilon = epsilon;
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradient, double learningRate, double scale) {
+        double step = nextStep(weights.length, learningRate);
+        double correction2 = 1 - Math.pow(_beta2, _steps);
+
+        for (int k = 0; k < weights.length; k++) {
+            double g = gradient[k] * scale;
+            _mean[k] = _beta1 * _mean[k] + (1 - _beta1) * g;
+            _squaredMean[k] = _beta2 * _squaredMean[k] + (1 - _beta2) * g * g;
+            weights[k] -= step * _mean[k] / (Math.sqrt(_squaredMean[k] / correction2) + _epsilon);
+            gradient[k] = 0;
+        }
+    }
+
+    @Override
+    public void update(float[] weights, float[] gradient, double learningRate, double scale) {
+        double step = nextStep(weights.length, learningRate);
+        double correction2 = 1 - Math.pow(_beta2, _steps);
+
+        for (int k = 0; k < weights.length; k++) {
+            double g = gradient[k] * scale;
+            _mean[k] = _beta1 * _mean[k] + (1 - _beta1) * g;
+            _squaredMean[k] = _beta2 * _squaredMean[k] + (1 - _beta2) * g * g;
+            weights[k] -= (float) (step * _mean[k] / (Math.sqrt(_squaredMean[k] / correction2) + _epsilon));
+            gradient[k] = 0;
+        }
+    }
+
+    /**
+     * Advances the step count, starting over if the layer's weight count has changed, e.g. after pruning.
+     *
+     * @return The learning rate with the gradient mean's bias correction folded in.
+     */
+    private double nextStep(int length, double learningRate) {
+        if (_mean == null || _mean.length != length) {
+            _mean = new double[length];
+            _squaredMean = new double[length];
+            _steps = 0;
+        }
+        _steps++;
+        return learningRate / (1 - Math.pow(_beta1, _steps));
+    }
+
+    @Override
+    public Optimizer copy() {
+        return new AdamOptimizer(_beta1, _beta2, _epsilon);
+    }
+}
@@ -0,0 +1,219 @@
+package Layers;
+
+import data.Tensor;
+
+import java.io.Serial;
+
+/**
+ * Replaces each window of every channel with the window's mean. In global mode the window is the
+ * whole map, so each channel shrinks to a single value and a classifier after it needs one weight
+ * per channel and class instead of one per pixel, channel and class.
+ * <p>
+ * Unlike {@link MaxPoolLayer}, every output cell is computed: cell (i, j) averages the window
+ * starting at input row {@code i * stepSize} and column {@code j * stepSize}.
+ */
+public class AveragePoolLayer extends Layer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private int _stepSize;    // Step size for the pooling operation
+    private int _windowSize;  // Size of the pooling window; unused in global mode
+    private boolean _global;  // Whether each window covers the whole map
+
+    private int _inLength;    // Number of input channels
+    private int _inRows;      // Number of input rows
+    private int _inColumns;   // Number of input columns
+
+    /**
+     * Constructor to initialize a windowed AveragePoolLayer.
+     *
+     * @param _stepSize Step size for the pooling operation.
+     * @param _windowSize Size of the pooling window.
+     * @param _inLength Number of input channels.
+     * @param _inRows Number of input rows.
+     * @param _inColumns Number of input columns.
+     */
+    public AveragePoolLayer(int _stepSize, int _windowSize, int _inLength, int _inRows, int _inColumns) {
+        this._stepSize = _stepSize;
+        this._windowSize = _windowSize;
+        this._inLength = _inLength;
+        this._inRows = _inRows;
+        this._inColumns = _inColumns;
+    }
+
+    /**
+     * Constructor to initialize a global AveragePoolLayer, which averages each channel to one value.
+     *
+     * @param _inLength Number of input channels.
+     * @param _inRows Number of input rows.
+     * @param _inColumns Number of input columns.
+     */
+    public AveragePoolLayer(int _inLength, int _inRows, int _inColumns) {
+        this(1, 0, _inLength, _inRows, _inColumns);
+        _global = true;
+    }
+
+    @Override
+    public LayerContext createContext() {
+        LayerContext context = new LayerContext();
+        context.output = new Tensor(_inLength, getOutputRows(), getOutputColumns());
+        context.inputGradient = new Tensor(_inLength, _inRows, _inColumns);
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        checkElements(input, _inLength * _inRows * _inColumns);
+        context.input = input;
+
+        pool(input.getData(), input.getOffset(), _inLength, _inRows, _inColumns, windowRows(), windowColumns(), _stepSize,
+                context.output.getData(), context.output.getOffset());
+        return context.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        int inputVolume = _inLength * _inRows * _inColumns;
+        checkElements(batch, batchSize * inputVolume);
+        Tensor output = new Tensor(batchSize, _inLength, getOutputRows(), getOutputColumns());
+
+        for (int n = 0; n < batchSize; n++) {
+            pool(batch.getData(), batch.getOffset() + n * inputVolume, _inLength, _inRows, _inColumns, windowRows(), windowColumns(),
+                    _stepSize, output.getData(), n * getOutputElements());
+        }
+
+        return output;
+    }
+
+    /**
+     * Averages every window of every channel of one sample.
+     *
+     * @param input Backing array of the input volume, shape (inLength, inRows, inColumns).
+     * @param inputOffset Index of the first input element.
+     * @param inLength Number of input channels.
+     * @param inRows Number of input rows.
+     * @param inColumns Number of input columns.
+     * @param windowRows Rows in each window.
+     * @param windowColumns Columns in each window.
+     * @param stepSize Step size between windows.
+     * @param output Backing array the averages are written to.
+     * @param outputOffset Index of the first average.
+     */
+    static void pool(double[] input, int inputOffset, int inLength, int inRows, int inColumns,
+                     int windowRows, int windowColumns, int stepSize, double[] output, int outputOffset) {
+        int outRows = (inRows - windowRows) / stepSize + 1;
+        int outColumns = (inColumns - windowColumns) / stepSize + 1;
+        double scale = 1.0 / (windowRows * windowColumns);
+        int index = outputOffset;
+
+        for (int l = 0; l < inLength; l++) {
+            int channelStart = inputOffset + l * inRows * inColumns;
+
+            for (int i = 0; i < outRows; i++) {
+                for (int j = 0; j < outColumns; j++) {
+                    double sum = 0;
+
+                    for (int x = 0; x < windowRows; x++) {
+                        int rowStart = channelStart + (i * stepSize + x) * inColumns + j * stepSize;
+                        for (int y = 0; y < windowColumns; y++) {
+                            sum += input[rowStart + y];
+                        }
+                    }
+
+                    output[index++] = sum * scale;
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Every input in a window gets an equal share of the window's gradient.
+     */
+    @Override
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Tensor dLdX = context.inputGradient;
+
+        try {
+            checkElements(dLdO, getOutputElements());
+            double[] error = dLdO.getData();
+            int errorIndex = dLdO.getOffset();
+            double[] inputGradient = dLdX.getData();
+            int windowRows = windowRows();
+            int windowColumns = windowColumns();
+            double scale = 1.0 / (windowRows * windowColumns);
+            dLdX.fill(0);
+
+            for (int l = 0; l < _inLength; l++) {
+                int channelStart = l * _inRows * _inColumns;
+
+                for (int i = 0; i < getOutputRows(); i++) {
+                    for (int j = 0; j < getOutputColumns(); j++) {
+                        double share = error[errorIndex++] * scale;
+                        if (share == 0) {
+                            continue;
+                        }
+
+                        for (int x = 0; x < windowRows; x++) {
+                            int rowStart = channelStart + (i * _stepSize + x) * _inColumns + j * _stepSize;
+                            for (int y = 0; y < windowColumns; y++) {
+                                inputGradient[rowStart + y] += share;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error during backpropagation: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return dLdX;
+    }
+
+    @Override
+    public InferenceOp compile() {
+        return InferenceOp.averagePool(windowRows(), windowColumns(), _stepSize, _inLength, _inRows, _inColumns);
+    }
+
+    @Override
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        return new QuantizedAveragePoolLayer(_stepSize, windowRows(), windowColumns(), _inLength, _inRows, _inColumns, inputScale, outputScale);
+    }
+
+    /**
+     * @return Whether each window covers the whole map.
+     */
+    public boolean isGlobal() {
+        return _global;
+    }
+
+    private int windowRows() {
+        return _global ? _inRows : _windowSize;
+    }
+
+    private int windowColumns() {
+        return _global ? _inColumns : _windowSize;
+    }
+
+    @Override
+    public int getOutputLength() {
+        return _inLength;
+    }
+
+    @Override
+    public int getOutputRows() {
+        return (_inRows - windowRows()) / _stepSize + 1;
+    }
+
+    @Override
+    public int getOutputColumns() {
+        return (_inColumns - windowColumns()) / _stepSize + 1;
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _inLength * getOutputRows() * getOutputColumns();
+    }
+}
@@ -1,28 +1,38 @@
 package Layers;
 
+import data.Tensor;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Random;
 
-import static data.MatrixUtility.add;
-import static data.MatrixUtility.multiply;
+import static data.MatrixUtility.gemm;
+import static data.MatrixUtility.narrow;
+import static data.MatrixUtility.widen;
 
 public class ConvolutionLayer extends Layer {
     @Serial
     private static final long serialVersionUID = 1L;
+    public static final int VALID = 0;  // Padding that only places filters fully inside the input
+    public static final int SAME = -1;  // Padding that keeps the input size at step size 1, (filterSize - 1) / 2 on each side
+    static final double DEFAULT_SPARSE_THRESHOLD = 0.25;  // Input density below which scattering beats im2col, see SparseConvolutionBenchmark
     private transient long SEED;  // Random seed for initializing filters
 
-    private List<double[][]> _filters;  // List of filters for convolution
+    private Tensor _filterBank;  // Filters for convolution, shape (numFilters, inLength, filterSize, filterSize); null in float32 mode
+    private float[] _floatFilters;  // The same filters in float32 mode, otherwise null
     private int _filterSize;  // Size of each filter (assumed to be square)
     private int _stepSize;  // Step size for the convolution operation
+    private int _padding;  // Zero rows and columns added on each side of the input
 
     private int _inLength;  // Number of input channels
     private int _inRows;  // Number of input rows
     private int _inColumns;  // Number of input columns
     private double _learningRate;  // Learning rate for updating filters
-
-    private List<double[][]> _lastInput;  // Stores the last input received for backpropagation
+    private double _sparseThreshold = DEFAULT_SPARSE_THRESHOLD;  // Largest input density handled by the sparse kernels
+    private boolean _spansChannels = true;  // Marks filters that span every input channel; false in models saved before they did
 
     /**
      * Constructor to initialize the ConvolutionLayer with specified parameters.
@@ -37,8 +47,26 @@ public class ConvolutionLayer extends Layer {
      * @param learningRate Learning rate for the layer.
      */
     public ConvolutionLayer(int _filterSize, int _stepSize, int _inLength, int _inRows, int _inColumns, long SEED, int numFilters, double learningRate) {
+        this(_filterSize, _stepSize, VALID, _inLength, _inRows, _inColumns, SEED, numFilters, learningRate);
+    }
+
+    /**
+     * Constructor to initialize a ConvolutionLayer that pads its input with zeros.
+     *
+     * @param _filterSize Size of the filters.
+     * @param _stepSize Step size for the convolution operation.
+     * @param padding Zero rows and columns added on each side of the input, or {@link #VALID} or {@link #SAME}.
+     * @param _inLength Number of input channels.
+     * @param _inRows Number of input rows.
+     * @param _inColumns Number of input columns.
+     * @param SEED Random seed for filter initialization.
+     * @param numFilters Number of filters to generate.
+     * @param learningRate Learning rate for the layer.
+     */
+    public ConvolutionLayer(int _filterSize, int _stepSize, int padding, int _inLength, int _inRows, int _inColumns, long SEED, int numFilters, double learningRate) {
         this._filterSize = _filterSize;
         this._stepSize = _stepSize;
+        _padding = resolvePadding(padding, _filterSize);
         this._inLength = _inLength;
         this._inRows = _inRows;
         this._inColumns = _inColumns;
@@ -48,27 +76,61 @@ public class ConvolutionLayer extends Layer {
         generateRandomFilters(numFilters);  // Generate filters randomly
     }
 
+    /**
+     * Turns a padding argument into the number of zero rows and columns added on each side.
+     *
+     * @param padding A padding of zero or more, {@link #VALID} or {@link #SAME}.
+     * @param filterSize Size of the filters.
+     * @return The padding on each side.
+     * @throws IllegalArgumentException If the padding is invalid, or {@link #SAME} is asked of an even filter size.
+     */
+    public static int resolvePadding(int padding, int filterSize) {
+        if (padding == SAME) {
+            if (filterSize % 2 == 0) {
+                throw new IllegalArgumentException("Same padding needs an odd filter size, was " + filterSize);
+            }
+            return (filterSize - 1) / 2;
+        }
+        if (padding < 0 || padding >= filterSize) {
+            throw new IllegalArgumentException("Padding must be between 0 and filterSize - 1, was " + padding);
+        }
+        return padding;
+    }
+
+    /**
+     * @return Number of output rows (or columns) of a convolution over an input extent.
+     */
+    public static int outputExtent(int inExtent, int filterSize, int stepSize, int padding) {
+        return (inExtent + 2 * padding - filterSize) / stepSize + 1;
+    }
+
+    /**
+     * @return The first output index whose receptive field reads tap {@code tap} inside the input rather than in the padding.
+     */
+    static int firstInside(int tap, int stepSize, int padding) {
+        return Math.max(0, -Math.floorDiv(tap - padding, stepSize));
+    }
+
+    /**
+     * @return The last output index whose receptive field reads tap {@code tap} inside the input, below {@code outExtent}.
+     */
+    static int lastInside(int tap, int stepSize, int padding, int inExtent, int outExtent) {
+        return Math.min(outExtent - 1, Math.floorDiv(inExtent - 1 + padding - tap, stepSize));
+    }
+
     /**
      * Generates random filters for the convolution layer.
      *
      * @param numFilters Number of filters to generate.
      */
     private void generateRandomFilters(int numFilters) {
-        _filters = new ArrayList<>();
+        _filterBank = new Tensor(numFilters, _inLength, _filterSize, _filterSize);
+        double[] weights = _filterBank.getData();
         Random random = new Random(SEED);
 
         try {
-            for (int n = 0; n < numFilters; n++) {
-                double[][] newFilter = new double[_filterSize][_filterSize];
-
-                for (int i = 0; i < _filterSize; i++) {
-                    for (int j = 0; j < _filterSize; j++) {
-                        double value = random.nextGaussian();  // Initialize filter weights with Gaussian distribution
-                        newFilter[i][j] = value;
-                    }
-                }
-
-                _filters.add(newFilter);
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = random.nextGaussian();  // Initialize filter weights with Gaussian distribution
             }
         } catch (Exception e) {
             System.err.println("Error generating filters: " + e.getMessage());
@@ -79,272 +141,827 @@ public class ConvolutionLayer extends Layer {
     /**
      * Performs the forward pass of the convolutional layer.
      *
-     * @param list List of input matrices (one for each channel).
-     * @return List of output matrices after convolution.
+     * @param input Input volume of shape (channels, rows, columns).
+     * @return Output volume with one channel per filter.
      */
-    public List<double[][]> convolutionForwardPass(List<double[][]> list) {
-        _lastInput = list;  // Store the input for use in backpropagation
+    public Tensor convolutionForwardPass(Tensor input) {
+        return forward(input, defaultContext());
+    }
 
-        List<double[][]> output = new ArrayList<>();
+    @Override
+    public LayerContext createContext() {
+        Context context = new Context();
+        context.output = new Tensor(getOutputLength(), getOutputRows(), getOutputColumns());
+        context.inputGradient = new Tensor(_inLength, _inRows, _inColumns);
+
+        if (getPrecision() == Precision.FLOAT32) {
+            context.floatWeightGradient = new float[_floatFilters.length];
+            context.floatColumns = new float[columnBufferSize()];
+            context.floatOutput = new float[getOutputElements()];
+            context.floatError = new float[getOutputElements()];
+            context.floatColumnGradient = new float[columnBufferSize()];
+        } else {
+            context.weightGradient = new Tensor(numFilters(), _inLength, _filterSize, _filterSize);
+            context.columns = newColumnBuffer();
+            context.columnGradient = newColumnBuffer();
+        }
+        return context;
+    }
 
-        try {
-            for (int m = 0; m < list.size(); m++) {
-                for (double[][] filter : _filters) {
-                    output.add(convolve(list.get(m), filter, _stepSize));  // Apply convolution for each filter
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        Context convContext = (Context) context;
+        checkElements(input, _inLength * _inRows * _inColumns);
+        convContext.input = input;  // Store the input for use in backpropagation
+        convContext.sparse = isSparse(input.getData(), input.getOffset(), input.size(), _sparseThreshold);
+
+        if (convContext.sparse) {
+            if (getPrecision() == Precision.FLOAT32) {
+                scatterChannels(input.getData(), input.getOffset(), convContext.floatOutput);
+                widen(getOutputElements(), convContext.floatOutput, 0, convContext.output.getData(), 0);
+            } else {
+                scatter(input.getData(), input.getOffset(), _inLength, _inRows, _inColumns,
+                        _filterBank.getData(), _filterSize, _stepSize, _padding, convContext.output.getData(), 0);
+            }
+        } else if (getPrecision() == Precision.FLOAT32) {
+            convolveChannels(input.getData(), input.getOffset(), convContext.floatColumns, convContext.floatOutput);
+            widen(getOutputElements(), convContext.floatOutput, 0, convContext.output.getData(), 0);
+        } else {
+            convolveChannels(input.getData(), input.getOffset(), convContext.columns.getData(), convContext.output.getData(), 0);
+        }
+        return convContext.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        int inputVolume = _inLength * _inRows * _inColumns;
+        checkElements(batch, batchSize * inputVolume);
+        Tensor output = new Tensor(batchSize, getOutputLength(), getOutputRows(), getOutputColumns());
+
+        if (getPrecision() == Precision.FLOAT32) {
+            float[] columns = new float[columnBufferSize()];
+            float[] sample = new float[getOutputElements()];
+
+            for (int n = 0; n < batchSize; n++) {
+                int inputOffset = batch.getOffset() + n * inputVolume;
+                if (isSparse(batch.getData(), inputOffset, inputVolume, _sparseThreshold)) {
+                    scatterChannels(batch.getData(), inputOffset, sample);
+                } else {
+                    convolveChannels(batch.getData(), inputOffset, columns, sample);
                 }
+                widen(sample.length, sample, 0, output.getData(), n * sample.length);
+            }
+            return output;
+        }
+
+        Tensor columns = newColumnBuffer();
+
+        for (int n = 0; n < batchSize; n++) {
+            int inputOffset = batch.getOffset() + n * inputVolume;
+            if (isSparse(batch.getData(), inputOffset, inputVolume, _sparseThreshold)) {
+                scatter(batch.getData(), inputOffset, _inLength, _inRows, _inColumns,
+                        _filterBank.getData(), _filterSize, _stepSize, _padding, output.getData(), n * getOutputElements());
+            } else {
+                convolveChannels(batch.getData(), inputOffset, columns.getData(), output.getData(), n * getOutputElements());
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * @return A buffer for the lowered input, shape (channels, filterSize * filterSize, outputRows * outputColumns).
+     */
+    private Tensor newColumnBuffer() {
+        return new Tensor(_inLength, _filterSize * _filterSize, getOutputRows() * getOutputColumns());
+    }
+
+    private int columnBufferSize() {
+        return _inLength * _filterSize * _filterSize * getOutputRows() * getOutputColumns();
+    }
+
+    int numFilters() {
+        return _filterBank != null ? _filterBank.dim(0) : _floatFilters.length / filterVolume();
+    }
+
+    /**
+     * @return Number of weights in one filter: every tap of every input channel.
+     */
+    private int filterVolume() {
+        return _inLength * _filterSize * _filterSize;
+    }
+
+    /**
+     * Convolves the input with every filter by lowering each channel with im2col, which stacks the
+     * channels into one (inLength * filterSize^2, outputRows * outputColumns) matrix, and
+     * multiplying the (numFilters, inLength * filterSize^2) filter matrix by it. Each filter's
+     * responses to the individual channels are summed by the multiply itself.
+     *
+     * @param input Backing array of the input volume, shape (channels, rows, columns).
+     * @param inputOffset Index of the first input element.
+     * @param columns Receives the lowered input of every channel; kept for backpropagation.
+     * @param output Backing array the results are written to, one channel per filter.
+     * @param outputOffset Index of the first output element.
+     */
+    private void convolveChannels(double[] input, int inputOffset, double[] columns, double[] output, int outputOffset) {
+        int filterVolume = filterVolume();
+        int outputArea = getOutputRows() * getOutputColumns();
+        int loweredArea = _filterSize * _filterSize * outputArea;
+
+        try {
+            for (int m = 0; m < _inLength; m++) {
+                im2col(input, inputOffset + m * _inRows * _inColumns, _inRows, _inColumns, _filterSize, _stepSize, _padding,
+                        columns, m * loweredArea);
             }
+
+            gemm(false, false, numFilters(), outputArea, filterVolume, 1.0,
+                    _filterBank.getData(), _filterBank.getOffset(), filterVolume,
+                    columns, 0, outputArea,
+                    0.0, output, outputOffset, outputArea);
         } catch (Exception e) {
             System.err.println("Error during convolution forward pass: " + e.getMessage());
             e.printStackTrace();
         }
+    }
 
-        return output;
+    /**
+     * Float32 form of {@link #convolveChannels(double[], int, double[], double[], int)}; the input
+     * is rounded to float while it is lowered.
+     */
+    private void convolveChannels(double[] input, int inputOffset, float[] columns, float[] output) {
+        int filterVolume = filterVolume();
+        int outputArea = getOutputRows() * getOutputColumns();
+        int loweredArea = _filterSize * _filterSize * outputArea;
+
+        try {
+            for (int m = 0; m < _inLength; m++) {
+                im2col(input, inputOffset + m * _inRows * _inColumns, columns, m * loweredArea);
+            }
+
+            gemm(false, false, numFilters(), outputArea, filterVolume, 1.0f,
+                    _floatFilters, 0, filterVolume,
+                    columns, 0, outputArea,
+                    0.0f, output, 0, outputArea);
+        } catch (Exception e) {
+            System.err.println("Error during convolution forward pass: " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     /**
-     * Applies convolution to a single input matrix using a single filter.
+     * Sets the largest input density, the fraction of non-zero input values, for which the layer
+     * scatters the non-zero values instead of lowering the input with im2col. Contexts pick the
+     * kernel on every pass, so the setting takes effect immediately.
      *
-     * @param input The input matrix.
-     * @param filter The filter matrix.
-     * @param stepSize The step size for the convolution operation.
-     * @return The output matrix after convolution.
+     * @param threshold A density between 0 and 1; 0 always uses im2col, 1 always scatters.
      */
-    private double[][] convolve(double[][] input, double[][] filter, int stepSize) {
-        int outRows = (input.length - filter.length) / stepSize + 1;
-        int outColumns = (input[0].length - filter[0].length) / stepSize + 1;
+    public void setSparseThreshold(double threshold) {
+        if (threshold < 0 || threshold > 1) {
+            throw new IllegalArgumentException("Sparse threshold must be between 0 and 1, was " + threshold);
+        }
+        _sparseThreshold = threshold;
+    }
 
-        double[][] output = new double[outRows][outColumns];
+    public double getSparseThreshold() {
+        return _sparseThreshold;
+    }
 
-        try {
-            int outRow = 0;
-            int outColumn;
+    /**
+     * @param data Backing array of the input.
+     * @param offset Index of the first input value.
+     * @param length Number of input values.
+     * @param threshold Largest density that counts as sparse.
+     * @return Whether at most {@code threshold} of the values are non-zero.
+     */
+    static boolean isSparse(double[] data, int offset, int length, double threshold) {
+        if (threshold <= 0) {
+            return false;
+        }
 
-            for (int i = 0; i <= input.length - filter.length; i += stepSize) {
-                outColumn = 0;
+        int nonZero = 0;
+        for (int k = offset; k < offset + length; k++) {
+            if (data[k] != 0) {
+                nonZero++;
+            }
+        }
+        return nonZero <= threshold * length;
+    }
 
-                for (int j = 0; j <= input[0].length - filter[0].length; j += stepSize) {
-                    double sum = 0.0;
+    /**
+     * Convolves a mostly-zero input by scattering each non-zero value into every output cell whose
+     * receptive field covers it, so the work scales with the number of non-zero values instead of
+     * the input size. Produces the same output layout as {@link #convolveChannels(double[], int, double[], double[], int)}.
+     *
+     * @param input Backing array of the input volume, shape (inLength, inRows, inColumns).
+     * @param inputOffset Index of the first input element.
+     * @param inLength Number of input channels.
+     * @param inRows Number of input rows.
+     * @param inColumns Number of input columns.
+     * @param filters Filters, shape (numFilters, inLength, filterSize, filterSize).
+     * @param filterSize Size of each filter.
+     * @param stepSize Step size of the convolution.
+     * @param padding Zero rows and columns around the input.
+     * @param output Backing array the results are written to, one channel per filter.
+     * @param outputOffset Index of the first output element.
+     */
+    static void scatter(double[] input, int inputOffset, int inLength, int inRows, int inColumns,
+                        double[] filters, int filterSize, int stepSize, int padding, double[] output, int outputOffset) {
+        int filterVolume = inLength * filterSize * filterSize;
+        int numFilters = filters.length / filterVolume;
+        int outRows = outputExtent(inRows, filterSize, stepSize, padding);
+        int outColumns = outputExtent(inColumns, filterSize, stepSize, padding);
+        int outputArea = outRows * outColumns;
+        Arrays.fill(output, outputOffset, outputOffset + numFilters * outputArea, 0);
+
+        for (int m = 0; m < inLength; m++) {
+            int channelTaps = m * filterSize * filterSize;  // Offset of channel m's taps within a filter
+
+            for (int r = 0; r < inRows; r++) {
+                for (int c = 0; c < inColumns; c++) {
+                    double value = input[inputOffset + (m * inRows + r) * inColumns + c];
+                    if (value == 0) {
+                        continue;
+                    }
 
-                    // Apply filter over this region
-                    for (int x = 0; x < filter.length; x++) {
-                        for (int y = 0; y < filter[0].length; y++) {
-                            int inputRowIndex = i + x;
-                            int inputColumnIndex = j + y;
+                    // Output (i, j) reads this pixel through tap (r + padding - i * step, c + padding - j * step)
+                    int pr = r + padding;
+                    int pc = c + padding;
+                    for (int x = pr % stepSize; x < filterSize && x <= pr; x += stepSize) {
+                        int i = (pr - x) / stepSize;
+                        if (i >= outRows) {
+                            continue;
+                        }
 
-                            double value = filter[x][y] * input[inputRowIndex][inputColumnIndex];
-                            sum += value;
+                        for (int y = pc % stepSize; y < filterSize && y <= pc; y += stepSize) {
+                            int j = (pc - y) / stepSize;
+                            if (j >= outColumns) {
+                                continue;
+                            }
+
+                            int cell = outputOffset + i * outColumns + j;
+                            int tap = channelTaps + x * filterSize + y;
+                            for (int f = 0; f < numFilters; f++) {
+                                output[cell + f * outputArea] += value * filters[f * filterVolume + tap];
+                            }
                         }
                     }
-                    output[outRow][outColumn] = sum;
-                    outColumn++;
                 }
-                outRow++;
             }
-        } catch (Exception e) {
-            System.err.println("Error during convolution: " + e.getMessage());
-            e.printStackTrace();
         }
+    }
 
-        return output;
+    /**
+     * Float32 form of {@link #scatter}, using the layer's own shapes and filters.
+     */
+    private void scatterChannels(double[] input, int inputOffset, float[] output) {
+        int filterVolume = filterVolume();
+        int numFilters = numFilters();
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int outputArea = outRows * outColumns;
+        Arrays.fill(output, 0, getOutputElements(), 0);
+
+        for (int m = 0; m < _inLength; m++) {
+            int channelTaps = m * _filterSize * _filterSize;
+
+            for (int r = 0; r < _inRows; r++) {
+                for (int c = 0; c < _inColumns; c++) {
+                    float value = (float) input[inputOffset + (m * _inRows + r) * _inColumns + c];
+                    if (value == 0) {
+                        continue;
+                    }
+
+                    int pr = r + _padding;
+                    int pc = c + _padding;
+                    for (int x = pr % _stepSize; x < _filterSize && x <= pr; x += _stepSize) {
+                        int i = (pr - x) / _stepSize;
+                        if (i >= outRows) {
+                            continue;
+                        }
+
+                        for (int y = pc % _stepSize; y < _filterSize && y <= pc; y += _stepSize) {
+                            int j = (pc - y) / _stepSize;
+                            if (j >= outColumns) {
+                                continue;
+                            }
+
+                            int cell = i * outColumns + j;
+                            int tap = channelTaps + x * _filterSize + y;
+                            for (int f = 0; f < numFilters; f++) {
+                                output[cell + f * outputArea] += value * _floatFilters[f * filterVolume + tap];
+                            }
+                        }
+                    }
+                }
+            }
+        }
     }
 
     /**
-     * Expands the input matrix by spacing out elements according to the step size.
+     * Adds the filter gradient of a sparse forward pass, gathering dL/dO at the output cells each
+     * non-zero input value was scattered to; the transpose of {@link #scatter}.
      *
-     * @param input The input matrix to be spaced.
-     * @return The spaced matrix.
+     * @param input Backing array of the input volume.
+     * @param inputOffset Index of the first input element.
+     * @param error Backing array of dL/dO, or null to read {@code floatError}.
+     * @param floatError dL/dO in float32 mode, from index 0; used when {@code error} is null.
+     * @param errorOffset Index of dL/dO's first element.
+     * @param gradient Filter gradient to add to, or null to add to {@code floatGradient}.
+     * @param floatGradient Filter gradient in float32 mode; used when {@code gradient} is null.
      */
-    public double[][] spaceArray(double[][] input) {
-        if (_stepSize == 1) {
-            return input;
-        }
+    private void gatherFilterGradient(double[] input, int inputOffset, double[] error, float[] floatError, int errorOffset,
+                                      double[] gradient, float[] floatGradient) {
+        int filterVolume = filterVolume();
+        int numFilters = numFilters();
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int outputArea = outRows * outColumns;
+
+        for (int m = 0; m < _inLength; m++) {
+            int channelTaps = m * _filterSize * _filterSize;
+
+            for (int r = 0; r < _inRows; r++) {
+                for (int c = 0; c < _inColumns; c++) {
+                    double value = input[inputOffset + (m * _inRows + r) * _inColumns + c];
+                    if (value == 0) {
+                        continue;
+                    }
 
-        int outRows = (input.length - 1) * _stepSize + 1;
-        int outColumns = (input[0].length - 1) * _stepSize + 1;
+                    int pr = r + _padding;
+                    int pc = c + _padding;
+                    for (int x = pr % _stepSize; x < _filterSize && x <= pr; x += _stepSize) {
+                        int i = (pr - x) / _stepSize;
+                        if (i >= outRows) {
+                            continue;
+                        }
 
-        double[][] output = new double[outRows][outColumns];
+                        for (int y = pc % _stepSize; y < _filterSize && y <= pc; y += _stepSize) {
+                            int j = (pc - y) / _stepSize;
+                            if (j >= outColumns) {
+                                continue;
+                            }
 
-        try {
-            for (int i = 0; i < input.length; i++) {
-                for (int j = 0; j < input[0].length; j++) {
-                    output[i * _stepSize][j * _stepSize] = input[i][j];
+                            int cell = errorOffset + i * outColumns + j;
+                            int tap = channelTaps + x * _filterSize + y;
+                            if (gradient != null) {
+                                for (int f = 0; f < numFilters; f++) {
+                                    gradient[f * filterVolume + tap] += value * error[cell + f * outputArea];
+                                }
+                            } else {
+                                for (int f = 0; f < numFilters; f++) {
+                                    floatGradient[f * filterVolume + tap] += (float) value * floatError[cell + f * outputArea];
+                                }
+                            }
+                        }
+                    }
                 }
             }
-        } catch (Exception e) {
-            System.err.println("Error spacing array: " + e.getMessage());
-            e.printStackTrace();
         }
-
-        return output;
     }
 
-    @Override
-    public double[] getOutput(List<double[][]> input) {
-            List<double[][]> output = convolutionForwardPass(input);
-            return _nextLayer.getOutput(output);
+    /**
+     * Lowers one input map into a (filterSize^2, outputRows * outputColumns) matrix whose column p
+     * holds the receptive field of output position p, so convolution becomes a matrix multiply.
+     * Taps that fall in the padding are written as zeros; the input is never copied into a padded map.
+     *
+     * @param input Backing array of the input map.
+     * @param inputOffset Index of the first input element.
+     * @param inRows Number of input rows.
+     * @param inColumns Number of input columns.
+     * @param filterSize Size of each filter.
+     * @param stepSize Step size of the convolution.
+     * @param padding Zero rows and columns around the input.
+     * @param columns Backing array of the lowered matrix.
+     * @param columnOffset Index of the lowered matrix's first element.
+     */
+    static void im2col(double[] input, int inputOffset, int inRows, int inColumns, int filterSize, int stepSize, int padding,
+                       double[] columns, int columnOffset) {
+        int outRows = outputExtent(inRows, filterSize, stepSize, padding);
+        int outColumns = outputExtent(inColumns, filterSize, stepSize, padding);
+        int index = columnOffset;
+
+        for (int x = 0; x < filterSize; x++) {
+            int firstRow = firstInside(x, stepSize, padding);
+            int lastRow = lastInside(x, stepSize, padding, inRows, outRows);
+
+            for (int y = 0; y < filterSize; y++) {
+                int firstColumn = firstInside(y, stepSize, padding);
+                int lastColumn = lastInside(y, stepSize, padding, inColumns, outColumns);
+
+                for (int i = 0; i < outRows; i++) {
+                    if (i < firstRow || i > lastRow || firstColumn > lastColumn) {
+                        Arrays.fill(columns, index, index + outColumns, 0);
+                        index += outColumns;
+                        continue;
+                    }
 
+                    int inputRowStart = inputOffset + (i * stepSize + x - padding) * inColumns + y - padding;
+                    Arrays.fill(columns, index, index + firstColumn, 0);
+                    for (int j = firstColumn; j <= lastColumn; j++) {
+                        columns[index + j] = input[inputRowStart + j * stepSize];
+                    }
+                    Arrays.fill(columns, index + lastColumn + 1, index + outColumns, 0);
+                    index += outColumns;
+                }
+            }
+        }
     }
 
-    @Override
-    public double[] getOutput(double[] input) {
-            List<double[][]> matrixInput = vectorToMatrix(input, _inLength, _inRows, _inColumns);
-            return getOutput(matrixInput);
-    }
+    /**
+     * Adds a lowered (filterSize^2, outputRows * outputColumns) gradient back onto the input map
+     * positions each column was read from; the inverse of {@link #im2col}. Gradients of padding taps are dropped.
+     *
+     * @param columns Backing array of the lowered gradient.
+     * @param columnOffset Index of the lowered gradient's first element.
+     * @param input Backing array of the input-map gradient.
+     * @param inputOffset Index of the first input-map element.
+     */
+    private void col2im(double[] columns, int columnOffset, double[] input, int inputOffset) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
 
-    @Override
-    public void backPropagation(double[] dLdO) {
-            List<double[][]> matrixInput = vectorToMatrix(dLdO, _inLength, _inRows, _inColumns);
-            backPropagation(matrixInput);
+        for (int x = 0; x < _filterSize; x++) {
+            int firstRow = firstInside(x, _stepSize, _padding);
+            int lastRow = lastInside(x, _stepSize, _padding, _inRows, outRows);
+
+            for (int y = 0; y < _filterSize; y++) {
+                int firstColumn = firstInside(y, _stepSize, _padding);
+                int lastColumn = lastInside(y, _stepSize, _padding, _inColumns, outColumns);
+                int tapStart = columnOffset + (x * _filterSize + y) * outRows * outColumns;
+
+                for (int i = firstRow; i <= lastRow; i++) {
+                    int inputRowStart = inputOffset + (i * _stepSize + x - _padding) * _inColumns + y - _padding;
+                    int index = tapStart + i * outColumns;
+
+                    for (int j = firstColumn; j <= lastColumn; j++) {
+                        input[inputRowStart + j * _stepSize] += columns[index + j];
+                    }
+                }
+            }
+        }
     }
 
-    @Override
-    public void backPropagation(List<double[][]> dLdO) {
-        try {
-            List<double[][]> filtersDelta = new ArrayList<>();
-            List<double[][]> dldOPreviousLayer = new ArrayList<>();
+    /**
+     * Float32 form of {@link #im2col(double[], int, int, int, int, int, int, double[], int)} for this layer's shapes.
+     */
+    private void im2col(double[] input, int inputOffset, float[] columns, int columnOffset) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int index = columnOffset;
+
+        for (int x = 0; x < _filterSize; x++) {
+            int firstRow = firstInside(x, _stepSize, _padding);
+            int lastRow = lastInside(x, _stepSize, _padding, _inRows, outRows);
+
+            for (int y = 0; y < _filterSize; y++) {
+                int firstColumn = firstInside(y, _stepSize, _padding);
+                int lastColumn = lastInside(y, _stepSize, _padding, _inColumns, outColumns);
+
+                for (int i = 0; i < outRows; i++) {
+                    if (i < firstRow || i > lastRow || firstColumn > lastColumn) {
+                        Arrays.fill(columns, index, index + outColumns, 0);
+                        index += outColumns;
+                        continue;
+                    }
 
-            for (int f = 0; f < _filters.size(); f++) {
-                filtersDelta.add(new double[_filterSize][_filterSize]);
+                    int inputRowStart = inputOffset + (i * _stepSize + x - _padding) * _inColumns + y - _padding;
+                    Arrays.fill(columns, index, index + firstColumn, 0);
+                    for (int j = firstColumn; j <= lastColumn; j++) {
+                        columns[index + j] = (float) input[inputRowStart + j * _stepSize];
+                    }
+                    Arrays.fill(columns, index + lastColumn + 1, index + outColumns, 0);
+                    index += outColumns;
+                }
             }
+        }
+    }
 
-            for (int i = 0; i < _lastInput.size(); i++) {
-                double[][] errorForInput = new double[_inRows][_inColumns];
+    /**
+     * Float32 form of {@link #col2im(double[], int, double[], int)}.
+     */
+    private void col2im(float[] columns, int columnOffset, double[] input, int inputOffset) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
 
-                for (int f = 0; f < _filters.size(); f++) {
-                    double[][] currFilter = _filters.get(f);
-                    double[][] error = dLdO.get(i * _filters.size() + f);
+        for (int x = 0; x < _filterSize; x++) {
+            int firstRow = firstInside(x, _stepSize, _padding);
+            int lastRow = lastInside(x, _stepSize, _padding, _inRows, outRows);
 
-                    double[][] spacedError = spaceArray(error);
-                    double[][] dldF = convolve(_lastInput.get(i), spacedError, 1);
+            for (int y = 0; y < _filterSize; y++) {
+                int firstColumn = firstInside(y, _stepSize, _padding);
+                int lastColumn = lastInside(y, _stepSize, _padding, _inColumns, outColumns);
+                int tapStart = columnOffset + (x * _filterSize + y) * outRows * outColumns;
 
-                    double[][] delta = multiply(dldF, _learningRate * -1);
-                    double[][] newTotalDelta = add(filtersDelta.get(f), delta);
-                    filtersDelta.set(f, newTotalDelta);
+                for (int i = firstRow; i <= lastRow; i++) {
+                    int inputRowStart = inputOffset + (i * _stepSize + x - _padding) * _inColumns + y - _padding;
+                    int index = tapStart + i * outColumns;
 
-                    double[][] flippedError = flipArrayHorizontally(flipArrayVertically(spacedError));
-                    errorForInput = add(errorForInput, fullConvolve(currFilter, flippedError));
+                    for (int j = firstColumn; j <= lastColumn; j++) {
+                        input[inputRowStart + j * _stepSize] += columns[index + j];
+                    }
                 }
-
-                dldOPreviousLayer.add(errorForInput);
             }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The first layer of a network has no one to pass an input gradient to, so it only
+     * accumulates the filter gradient and returns the input-gradient buffer untouched.
+     */
+    @Override
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Context convContext = (Context) context;
+        Tensor dldOPreviousLayer = convContext.inputGradient;
 
-            for (int f = 0; f < _filters.size(); f++) {
-                double[][] modified = add(filtersDelta.get(f), _filters.get(f));
-                _filters.set(f, modified);
+        try {
+            checkElements(dLdO, getOutputElements());
+            boolean propagate = _previousLayer != null;
+
+            if (propagate) {
+                dldOPreviousLayer.fill(0);
             }
 
-            if (_previousLayer != null) {
-                _previousLayer.backPropagation(dldOPreviousLayer);
+            if (getPrecision() == Precision.FLOAT32) {
+                narrow(getOutputElements(), dLdO.getData(), dLdO.getOffset(), convContext.floatError, 0);
+                backpropagateFloat(convContext, propagate);
+            } else {
+                backpropagate(dLdO.getData(), dLdO.getOffset(), convContext, propagate);
             }
         } catch (Exception e) {
             System.err.println("Error during backpropagation: " + e.getMessage());
             e.printStackTrace();
         }
+
+        return dldOPreviousLayer;
     }
 
     /**
-     * Flips an array horizontally.
+     * Accumulates the filter gradient and, if asked, scatters the input gradient back onto the input channels.
      *
-     * @param array The input array to flip.
-     * @return The horizontally flipped array.
+     * @param error Backing array of dL/dO.
+     * @param errorStart Index of dL/dO's first element.
+     * @param convContext The context used for the forward pass.
+     * @param propagate Whether to compute the gradient w.r.t. the input.
      */
-    public double[][] flipArrayHorizontally(double[][] array) {
-        int rows = array.length;
-        int columns = array[0].length;
+    private void backpropagate(double[] error, int errorStart, Context convContext, boolean propagate) {
+        int numFilters = numFilters();
+        int filterVolume = filterVolume();
+        int outputArea = getOutputRows() * getOutputColumns();
+        int loweredArea = _filterSize * _filterSize * outputArea;
+        double[] columnGradient = convContext.columnGradient.getData();
+
+        if (convContext.sparse) {
+            // The forward pass skipped im2col, so gather the filter gradient from the non-zero inputs
+            gatherFilterGradient(convContext.input.getData(), convContext.input.getOffset(), error, null, errorStart,
+                    convContext.weightGradient.getData(), null);
+        } else {
+            // dL/dF += dL/dO (numFilters x area) * columns^T (area x inLength * filterSize^2)
+            gemm(false, true, numFilters, filterVolume, outputArea, 1.0,
+                    error, errorStart, outputArea,
+                    convContext.columns.getData(), 0, outputArea,
+                    1.0, convContext.weightGradient.getData(), 0, filterVolume);
+        }
 
-        double[][] output = new double[rows][columns];
+        if (propagate) {
+            // dL/dcolumns = F^T (inLength * filterSize^2 x numFilters) * dL/dO (numFilters x area), then scatter back
+            gemm(true, false, filterVolume, outputArea, numFilters, 1.0,
+                    _filterBank.getData(), _filterBank.getOffset(), filterVolume,
+                    error, errorStart, outputArea,
+                    0.0, columnGradient, 0, outputArea);
 
-            for (int i = 0; i < rows; i++) {
-                for (int j = 0; j < columns; j++) {
-                    output[rows - i - 1][j] = array[i][j];
-                }
+            for (int m = 0; m < _inLength; m++) {
+                col2im(columnGradient, m * loweredArea, convContext.inputGradient.getData(), m * _inRows * _inColumns);
             }
-
-        return output;
+        }
     }
 
     /**
-     * Flips an array vertically.
-     *
-     * @param array The input array to flip.
-     * @return The vertically flipped array.
+     * Float32 form of {@link #backpropagate}, reading dL/dO from the context's float error buffer.
      */
-    public double[][] flipArrayVertically(double[][] array) {
-        int rows = array.length;
-        int columns = array[0].length;
+    private void backpropagateFloat(Context convContext, boolean propagate) {
+        int numFilters = numFilters();
+        int filterVolume = filterVolume();
+        int outputArea = getOutputRows() * getOutputColumns();
+        int loweredArea = _filterSize * _filterSize * outputArea;
+        float[] error = convContext.floatError;
+
+        if (convContext.sparse) {
+            gatherFilterGradient(convContext.input.getData(), convContext.input.getOffset(), null, error, 0,
+                    null, convContext.floatWeightGradient);
+        } else {
+            gemm(false, true, numFilters, filterVolume, outputArea, 1.0f,
+                    error, 0, outputArea,
+                    convContext.floatColumns, 0, outputArea,
+                    1.0f, convContext.floatWeightGradient, 0, filterVolume);
+        }
 
-        double[][] output = new double[rows][columns];
+        if (propagate) {
+            gemm(true, false, filterVolume, outputArea, numFilters, 1.0f,
+                    _floatFilters, 0, filterVolume,
+                    error, 0, outputArea,
+                    0.0f, convContext.floatColumnGradient, 0, outputArea);
 
-            for (int i = 0; i < rows; i++) {
-                for (int j = 0; j < columns; j++) {
-                    output[i][columns - j - 1] = array[i][j];
-                }
+            for (int m = 0; m < _inLength; m++) {
+                col2im(convContext.floatColumnGradient, m * loweredArea, convContext.inputGradient.getData(), m * _inRows * _inColumns);
             }
+        }
+    }
 
-        return output;
+    @Override
+    public void applyGradients(LayerContext context, double scale) {
+        if (getPrecision() == Precision.FLOAT32) {
+            getOptimizer().update(_floatFilters, context.floatWeightGradient, _learningRate, scale);
+        } else {
+            getOptimizer().update(_filterBank.getData(), context.weightGradient.getData(), _learningRate, scale);
+        }
+    }
+
+    @Override
+    protected void convertWeights(Precision precision) {
+        if (precision == Precision.FLOAT32) {
+            _floatFilters = new float[_filterBank.size()];
+            narrow(_floatFilters.length, _filterBank.getData(), _filterBank.getOffset(), _floatFilters, 0);
+            _filterBank = null;
+        } else {
+            _filterBank = new Tensor(numFilters(), _inLength, _filterSize, _filterSize);
+            widen(_floatFilters.length, _floatFilters, 0, _filterBank.getData(), 0);
+            _floatFilters = null;
+        }
+    }
+
+    @Override
+    public InferenceOp compile() {
+        return InferenceOp.convolution(filtersAsDouble(), _filterSize, _stepSize, _padding, _inLength, _inRows, _inColumns, _sparseThreshold);
     }
 
     /**
-     * Applies full convolution on the input array with the given filter.
-     *
-     * @param input The input array.
-     * @param filter The filter array.
-     * @return The output array after applying full convolution.
+     * @return A copy of the filters in double precision, whatever precision the layer runs in.
      */
-    private double[][] fullConvolve(double[][] input, double[][] filter) {
-        int outRows = (input.length + filter.length) + 1;
-        int outColumns = (input[0].length + filter[0].length) + 1;
-
-        double[][] output = new double[outRows][outColumns];
+    double[] filtersAsDouble() {
+        if (_filterBank != null) {
+            return _filterBank.toArray();
+        }
 
-        try {
-            int outRow = 0;
-            int outColumn;
+        double[] weights = new double[_floatFilters.length];
+        widen(weights.length, _floatFilters, 0, weights, 0);
+        return weights;
+    }
 
-            for (int i = -filter.length + 1; i < input.length; i++) {
-                outColumn = 0;
+    /**
+     * Quantizes each filter symmetrically with its own scale, so a filter with small weights
+     * keeps its resolution next to one with large weights.
+     */
+    @Override
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        int numFilters = numFilters();
+        int filterElements = filterVolume();
+        double[] weights = filtersAsDouble();
+
+        byte[] filters = new byte[weights.length];
+        float[] filterScales = new float[numFilters];
+
+        for (int f = 0; f < numFilters; f++) {
+            double max = 0;
+            for (int k = f * filterElements; k < (f + 1) * filterElements; k++) {
+                max = Math.max(max, Math.abs(weights[k]));
+            }
 
-                for (int j = -filter[0].length + 1; j < input[0].length; j++) {
-                    double sum = 0.0;
+            filterScales[f] = QuantizedLayer.scaleFor(max);
+            for (int k = f * filterElements; k < (f + 1) * filterElements; k++) {
+                filters[k] = QuantizedLayer.quantize(weights[k], filterScales[f]);
+            }
+        }
 
-                    // Apply filter over this region
-                    for (int x = 0; x < filter.length; x++) {
-                        for (int y = 0; y < filter[0].length; y++) {
-                            int inputRowIndex = i + x;
-                            int inputColumnIndex = j + y;
+        return new QuantizedConvolutionLayer(filters, filterScales, _filterSize, _stepSize, _padding,
+                _inLength, _inRows, _inColumns, inputScale, outputScale);
+    }
 
-                            if (inputRowIndex >= 0 && inputColumnIndex >= 0 && inputRowIndex < input.length && inputColumnIndex < input[0].length) {
-                                double value = filter[x][y] * input[inputRowIndex][inputColumnIndex];
-                                sum += value;
-                            }
-                        }
+    /**
+     * Restores the layer from a stream, upgrading models saved when the filters were
+     * stored as a {@code List<double[][]>} into the flat filter bank, and models saved when each
+     * filter was applied to every input channel separately into filters that span the channels.
+     */
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _filterSize = fields.get("_filterSize", 0);
+        _stepSize = fields.get("_stepSize", 0);
+        _padding = fields.get("_padding", 0);
+        _inLength = fields.get("_inLength", 0);
+        _inRows = fields.get("_inRows", 0);
+        _inColumns = fields.get("_inColumns", 0);
+        _learningRate = fields.get("_learningRate", 0.0);
+        _sparseThreshold = fields.get("_sparseThreshold", DEFAULT_SPARSE_THRESHOLD);
+
+        if (fields.getObjectStreamClass().getField("_filters") != null) {
+            List<double[][]> legacyFilters = (List<double[][]>) fields.get("_filters", null);
+            _filterBank = new Tensor(legacyFilters.size(), _filterSize, _filterSize);
+            for (int f = 0; f < legacyFilters.size(); f++) {
+                for (int i = 0; i < _filterSize; i++) {
+                    for (int j = 0; j < _filterSize; j++) {
+                        _filterBank.set(f, i, j, legacyFilters.get(f)[i][j]);
                     }
-                    output[outRow][outColumn] = sum;
-                    outColumn++;
                 }
-                outRow++;
             }
-        } catch (Exception e) {
-            System.err.println("Error during full convolution: " + e.getMessage());
-            e.printStackTrace();
+        } else {
+            _filterBank = (Tensor) fields.get("_filterBank", null);
+            _floatFilters = (float[]) fields.get("_floatFilters", null);
         }
 
-        return output;
+        if (!fields.get("_spansChannels", false)) {
+            spanChannels();
+        }
+        _spansChannels = true;
+    }
+
+    /**
+     * Converts per-channel filters of shape (numFilters, filterSize, filterSize), which produced
+     * one output channel per (input channel, filter) pair, into the equivalent filters spanning
+     * every input channel. Output channel m * numFilters + f becomes a filter holding the old
+     * filter f at channel m and zeros elsewhere, so the layer's outputs are unchanged.
+     */
+    private void spanChannels() {
+        int filterElements = _filterSize * _filterSize;
+        boolean floatMode = _filterBank == null;
+        double[] legacy = floatMode ? new double[_floatFilters.length] : _filterBank.toArray();
+        if (floatMode) {
+            widen(legacy.length, _floatFilters, 0, legacy, 0);
+        }
+
+        int legacyFilters = legacy.length / filterElements;
+        Tensor spanning = new Tensor(_inLength * legacyFilters, _inLength, _filterSize, _filterSize);
+        double[] weights = spanning.getData();
+
+        for (int m = 0; m < _inLength; m++) {
+            for (int f = 0; f < legacyFilters; f++) {
+                int filter = m * legacyFilters + f;
+                System.arraycopy(legacy, f * filterElements, weights, (filter * _inLength + m) * filterElements, filterElements);
+            }
+        }
+
+        if (floatMode) {
+            _floatFilters = new float[weights.length];
+            narrow(weights.length, weights, 0, _floatFilters, 0);
+        } else {
+            _filterBank = spanning;
+        }
+    }
+
+    /**
+     * @return The filters in double mode, shape (numFilters, inLength, filterSize, filterSize), otherwise null.
+     */
+    double[] filterData() {
+        return _filterBank == null ? null : _filterBank.getData();
+    }
+
+    /**
+     * @return The filters in float32 mode, otherwise null.
+     */
+    float[] floatFilterData() {
+        return _floatFilters;
+    }
+
+    int getFilterSize() {
+        return _filterSize;
+    }
+
+    int getStepSize() {
+        return _stepSize;
+    }
+
+    int getPadding() {
+        return _padding;
+    }
+
+    int getInputLength() {
+        return _inLength;
+    }
+
+    int getInputRows() {
+        return _inRows;
+    }
+
+    int getInputColumns() {
+        return _inColumns;
     }
 
     @Override
     public int getOutputLength() {
-            return _filters.size() * _inLength;
+            return numFilters();
     }
 
     @Override
     public int getOutputRows() {
-            return (_inRows - _filterSize) / _stepSize + 1;
+            return outputExtent(_inRows, _filterSize, _stepSize, _padding);
     }
 
     @Override
     public int getOutputColumns() {
-            return (_inColumns - _filterSize) / _stepSize + 1;
+            return outputExtent(_inColumns, _filterSize, _stepSize, _padding);
 
     }
 
@@ -352,4 +969,20 @@ public class ConvolutionLayer extends Layer {
     public int getOutputElements() {
             return getOutputColumns() * getOutputRows() * getOutputLength();
     }
+
+    /**
+     * Lowered-input buffers for one thread, in the layer's precision.
+     */
+    static final class Context extends LayerContext {
+        Tensor columns;         // im2col of every input channel from the last forward pass
+        Tensor columnGradient;  // Gradient w.r.t. one channel's lowered input
+
+        // Float32-mode counterparts of the buffers above, plus float copies of the output and dL/dO
+        float[] floatColumns;
+        float[] floatColumnGradient;
+        float[] floatOutput;
+        float[] floatError;
+
+        boolean sparse;  // Whether the last forward pass scattered instead of filling the lowered-input buffers
+    }
 }
@@ -0,0 +1,596 @@
+package Layers;
+
+import data.Tensor;
+
+import java.io.Serial;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A {@link ConvolutionLayer} followed by a {@link MaxPoolLayer}, run as one layer.
+ * <p>
+ * The unfused pair writes every convolution output to memory and the pooling layer reads it back.
+ * This layer sums the maps of every filter across the input channels into a small tile that stays
+ * in L1, pools them straight away and keeps only the pooled values. Convolution values outside every
+ * pooling window are not computed at all. For backpropagation each pooled cell records the index
+ * of its max in the convolution output, so the backward pass visits only those positions.
+ * <p>
+ * The wrapped layers keep the weights and the configuration, so the fused layer trains exactly
+ * like the pair and produces the same values up to rounding.
+ */
+public class ConvolutionPoolLayer extends Layer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final ConvolutionLayer _convolution;
+    private final MaxPoolLayer _pool;
+
+    /**
+     * @param convolution The convolution layer; its weights are shared, not copied.
+     * @param pool The pooling layer reading the convolution's output.
+     */
+    public ConvolutionPoolLayer(ConvolutionLayer convolution, MaxPoolLayer pool) {
+        if (pool.getInputLength() != convolution.getOutputLength() || pool.getInputRows() != convolution.getOutputRows()
+                || pool.getInputColumns() != convolution.getOutputColumns()) {
+            throw new IllegalArgumentException("Pooling layer does not match the convolution's output");
+        }
+        _convolution = convolution;
+        _pool = pool;
+        convertTo(convolution.getPrecision());
+    }
+
+    /**
+     * Replaces every convolution layer that is directly followed by a max-pooling layer with one
+     * fused layer. The layers are not copied, so the result shares their weights.
+     *
+     * @param layers The layers in network order.
+     * @return A new list with the pairs fused and every other layer unchanged.
+     */
+    public static List<Layer> fuse(List<Layer> layers) {
+        List<Layer> fused = new ArrayList<>();
+
+        for (int i = 0; i < layers.size(); i++) {
+            if (i + 1 < layers.size() && layers.get(i) instanceof ConvolutionLayer convolution
+                    && layers.get(i + 1) instanceof MaxPoolLayer pool) {
+                fused.add(new ConvolutionPoolLayer(convolution, pool));
+                i++;
+            } else {
+                fused.add(layers.get(i));
+            }
+        }
+
+        return fused;
+    }
+
+    /**
+     * The inverse of {@link #fuse}: replaces every fused layer with its convolution and pooling layers.
+     *
+     * @param layers The layers in network order.
+     * @return A new list with the fused layers split and every other layer unchanged.
+     */
+    public static List<Layer> unfuse(List<Layer> layers) {
+        List<Layer> unfused = new ArrayList<>();
+
+        for (Layer layer : layers) {
+            if (layer instanceof ConvolutionPoolLayer fusedLayer) {
+                unfused.add(fusedLayer._convolution);
+                unfused.add(fusedLayer._pool);
+            } else {
+                unfused.add(layer);
+            }
+        }
+
+        return unfused;
+    }
+
+    public ConvolutionLayer getConvolution() {
+        return _convolution;
+    }
+
+    public MaxPoolLayer getPool() {
+        return _pool;
+    }
+
+    @Override
+    public LayerContext createContext() {
+        Context context = new Context();
+        context.output = new Tensor(getOutputLength(), getOutputRows(), getOutputColumns());
+        context.inputGradient = new Tensor(_convolution.getInputLength(), _convolution.getInputRows(), _convolution.getInputColumns());
+        context.argmax = new int[getOutputElements()];
+
+        int filterSize = _convolution.getFilterSize();
+        int inLength = _convolution.getInputLength();
+        if (getPrecision() == Precision.FLOAT32) {
+            context.floatWeightGradient = new float[_convolution.numFilters() * inLength * filterSize * filterSize];
+            context.floatTile = new float[tileLength()];
+        } else {
+            context.weightGradient = new Tensor(_convolution.numFilters(), inLength, filterSize, filterSize);
+            context.tile = new double[tileLength()];
+        }
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        Context fusedContext = (Context) context;
+        checkElements(input, _convolution.getInputLength() * _convolution.getInputRows() * _convolution.getInputColumns());
+        fusedContext.input = input;
+
+        if (getPrecision() == Precision.FLOAT32) {
+            convolvePoolFloat(input.getData(), input.getOffset(), fusedContext.floatTile, fusedContext.output.getData(), 0, fusedContext.argmax);
+        } else {
+            convolvePool(input.getData(), input.getOffset(), _convolution.getInputLength(), _convolution.getInputRows(),
+                    _convolution.getInputColumns(), _convolution.filterData(), _convolution.getFilterSize(),
+                    _convolution.getStepSize(), _convolution.getPadding(), _pool.getWindowSize(), _pool.getStepSize(),
+                    _convolution.getSparseThreshold(), fusedContext.tile, fusedContext.output.getData(), 0, fusedContext.argmax);
+        }
+        return fusedContext.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        int inputVolume = _convolution.getInputLength() * _convolution.getInputRows() * _convolution.getInputColumns();
+        checkElements(batch, batchSize * inputVolume);
+        Tensor output = new Tensor(batchSize, getOutputLength(), getOutputRows(), getOutputColumns());
+        double[] tile = new double[tileLength()];
+        float[] floatTile = new float[tileLength()];
+
+        for (int n = 0; n < batchSize; n++) {
+            int inputOffset = batch.getOffset() + n * inputVolume;
+            if (getPrecision() == Precision.FLOAT32) {
+                convolvePoolFloat(batch.getData(), inputOffset, floatTile, output.getData(), n * getOutputElements(), null);
+            } else {
+                convolvePool(batch.getData(), inputOffset, _convolution.getInputLength(), _convolution.getInputRows(),
+                        _convolution.getInputColumns(), _convolution.filterData(), _convolution.getFilterSize(),
+                        _convolution.getStepSize(), _convolution.getPadding(), _pool.getWindowSize(), _pool.getStepSize(),
+                        _convolution.getSparseThreshold(), tile, output.getData(), n * getOutputElements(), null);
+            }
+        }
+
+        return output;
+    }
+
+    /**
+     * @return Length of the tile buffer {@link #convolvePool} needs: for every filter, the
+     * convolution rows and columns that fall inside a visited pooling window.
+     */
+    static int tileLength(int numFilters, int convRows, int convColumns, int windowSize, int poolStep) {
+        return numFilters * tileExtent(convRows, windowSize, poolStep) * tileExtent(convColumns, windowSize, poolStep);
+    }
+
+    /**
+     * @return Number of leading convolution rows (or columns) that some visited pooling window reads.
+     */
+    private static int tileExtent(int convExtent, int windowSize, int poolStep) {
+        int poolExtent = (convExtent - windowSize) / poolStep + 1;
+        int lastWindow = (poolExtent - 1) / poolStep * poolStep;  // MaxPoolLayer visits every poolStep-th cell
+        return Math.min(convExtent, lastWindow + windowSize);
+    }
+
+    /**
+     * Convolves and max-pools one sample, visiting the same pooling windows as {@link MaxPoolLayer}
+     * so cells it skips are left at zero.
+     * <p>
+     * The convolution values that some window reads are summed over every input channel into
+     * {@code tile}, a buffer small enough to stay in L1, and the windows are then pooled straight
+     * from it. A dense input fills the tile with one unit-stride loop per filter tap; a sparse one
+     * is scattered into it pixel by pixel, as {@link ConvolutionLayer#scatter} does.
+     *
+     * @param input Backing array of the input volume, shape (inLength, inRows, inColumns).
+     * @param inputOffset Index of the first input element.
+     * @param inLength Number of input channels.
+     * @param inRows Number of input rows.
+     * @param inColumns Number of input columns.
+     * @param filters Filters, shape (numFilters, inLength, filterSize, filterSize).
+     * @param filterSize Size of each filter.
+     * @param stepSize Step size of the convolution.
+     * @param padding Zero rows and columns around the input.
+     * @param windowSize Size of the pooling window.
+     * @param poolStep Step size of the pooling.
+     * @param sparseThreshold Largest input density that is scattered instead of filled densely.
+     * @param tile Working space with at least {@link #tileLength} values.
+     * @param output Backing array the pooled values are written to.
+     * @param outputOffset Index of the first pooled value.
+     * @param argmax Receives the convolution-output index of each pooled cell's max, or null. Skipped
+     *               cells get the index of their map's first value, as {@link #skipCells} explains.
+     */
+    static void convolvePool(double[] input, int inputOffset, int inLength, int inRows, int inColumns,
+                             double[] filters, int filterSize, int stepSize, int padding, int windowSize, int poolStep,
+                             double sparseThreshold, double[] tile, double[] output, int outputOffset, int[] argmax) {
+        int filterElements = filterSize * filterSize;
+        int filterVolume = inLength * filterElements;
+        int numFilters = filters.length / filterVolume;
+        int convRows = ConvolutionLayer.outputExtent(inRows, filterSize, stepSize, padding);
+        int convColumns = ConvolutionLayer.outputExtent(inColumns, filterSize, stepSize, padding);
+        int poolRows = (convRows - windowSize) / poolStep + 1;
+        int poolColumns = (convColumns - windowSize) / poolStep + 1;
+        int poolArea = poolRows * poolColumns;
+        int tileRows = tileExtent(convRows, windowSize, poolStep);
+        int tileColumns = tileExtent(convColumns, windowSize, poolStep);
+        int tileArea = tileRows * tileColumns;
+        int inputArea = inRows * inColumns;
+        boolean sparse = ConvolutionLayer.isSparse(input, inputOffset, inLength * inputArea, sparseThreshold);
+
+        Arrays.fill(output, outputOffset, outputOffset + numFilters * poolArea, 0);
+        if (argmax != null) {
+            skipCells(argmax, numFilters, poolArea, convRows * convColumns);
+        }
+
+        Arrays.fill(tile, 0, numFilters * tileArea, 0);
+
+        for (int m = 0; m < inLength; m++) {
+            int channelStart = inputOffset + m * inputArea;
+            int channelTaps = m * filterElements;
+
+            // Convolution values of every filter's tile, summed tap by tap in the same order as im2col + gemm
+            if (sparse) {
+                int lastRow = Math.min(inRows, (tileRows - 1) * stepSize + filterSize - padding);
+                int lastColumn = Math.min(inColumns, (tileColumns - 1) * stepSize + filterSize - padding);
+
+                for (int r = 0; r < lastRow; r++) {
+                    for (int c = 0; c < lastColumn; c++) {
+                        double value = input[channelStart + r * inColumns + c];
+                        if (value == 0) {
+                            continue;
+                        }
+
+                        int pr = r + padding;
+                        int pc = c + padding;
+                        for (int x = pr % stepSize; x < filterSize && x <= pr; x += stepSize) {
+                            int i = (pr - x) / stepSize;
+                            if (i >= tileRows) {
+                                continue;
+                            }
+
+                            for (int y = pc % stepSize; y < filterSize && y <= pc; y += stepSize) {
+                                int j = (pc - y) / stepSize;
+                                if (j >= tileColumns) {
+                                    continue;
+                                }
+
+                                int cell = i * tileColumns + j;
+                                int tap = channelTaps + x * filterSize + y;
+                                for (int f = 0; f < numFilters; f++) {
+                                    tile[f * tileArea + cell] += value * filters[f * filterVolume + tap];
+                                }
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (int f = 0; f < numFilters; f++) {
+                    for (int a = 0; a < filterSize; a++) {
+                        int firstRow = ConvolutionLayer.firstInside(a, stepSize, padding);
+                        int lastTileRow = ConvolutionLayer.lastInside(a, stepSize, padding, inRows, tileRows);
+
+                        for (int b = 0; b < filterSize; b++) {
+                            double weight = filters[f * filterVolume + channelTaps + a * filterSize + b];
+                            int firstColumn = ConvolutionLayer.firstInside(b, stepSize, padding);
+                            int lastTileColumn = ConvolutionLayer.lastInside(b, stepSize, padding, inColumns, tileColumns);
+
+                            for (int i = firstRow; i <= lastTileRow; i++) {
+                                int inputRowStart = channelStart + (i * stepSize + a - padding) * inColumns + b - padding;
+                                int tileRowStart = f * tileArea + i * tileColumns;
+
+                                for (int j = firstColumn; j <= lastTileColumn; j++) {
+                                    tile[tileRowStart + j] += weight * input[inputRowStart + j * stepSize];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int f = 0; f < numFilters; f++) {
+            int tileStart = f * tileArea;
+
+            for (int r = 0; r < poolRows; r += poolStep) {
+                for (int c = 0; c < poolColumns; c += poolStep) {
+                    double max = Double.NEGATIVE_INFINITY;
+                    int maxIndex = -1;
+
+                    for (int x = 0; x < windowSize && r + x < convRows; x++) {
+                        for (int y = 0; y < windowSize && c + y < convColumns; y++) {
+                            double value = tile[tileStart + (r + x) * tileColumns + c + y];
+                            if (max < value) {
+                                max = value;
+                                maxIndex = (f * convRows + r + x) * convColumns + c + y;
+                            }
+                        }
+                    }
+
+                    int cell = f * poolArea + r * poolColumns + c;
+                    output[outputOffset + cell] = max;
+                    if (argmax != null) {
+                        argmax[cell] = maxIndex;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Points every pooled cell at the first value of its filter's map before the visited cells are
+     * overwritten. {@link MaxPoolLayer} never writes the argmax of a cell its step skips, so it stays
+     * at row 0, column 0, and {@link MaxPoolLayer#backward} sends that cell's error there; the fused
+     * layer must do the same to train exactly like the pair.
+     */
+    private static void skipCells(int[] argmax, int numFilters, int poolArea, int convArea) {
+        for (int f = 0; f < numFilters; f++) {
+            Arrays.fill(argmax, f * poolArea, (f + 1) * poolArea, f * convArea);
+        }
+    }
+
+    /**
+     * Float32 form of {@link #convolvePool}, rounding each input value to float as the convolution's im2col does.
+     */
+    private void convolvePoolFloat(double[] input, int inputOffset, float[] tile, double[] output, int outputOffset, int[] argmax) {
+        float[] filters = _convolution.floatFilterData();
+        int filterSize = _convolution.getFilterSize();
+        int stepSize = _convolution.getStepSize();
+        int padding = _convolution.getPadding();
+        int inColumns = _convolution.getInputColumns();
+        int inputArea = _convolution.getInputRows() * inColumns;
+        int filterElements = filterSize * filterSize;
+        int numFilters = _convolution.numFilters();
+        int convRows = _convolution.getOutputRows();
+        int convColumns = _convolution.getOutputColumns();
+        int windowSize = _pool.getWindowSize();
+        int poolStep = _pool.getStepSize();
+        int poolColumns = getOutputColumns();
+        int poolArea = getOutputRows() * poolColumns;
+        int tileRows = tileExtent(convRows, windowSize, poolStep);
+        int tileColumns = tileExtent(convColumns, windowSize, poolStep);
+        int tileArea = tileRows * tileColumns;
+        int inRows = _convolution.getInputRows();
+        int inLength = _convolution.getInputLength();
+        int filterVolume = inLength * filterElements;
+        boolean sparse = ConvolutionLayer.isSparse(input, inputOffset, inLength * inputArea, _convolution.getSparseThreshold());
+
+        Arrays.fill(output, outputOffset, outputOffset + getOutputElements(), 0);
+        if (argmax != null) {
+            skipCells(argmax, numFilters, poolArea, convRows * convColumns);
+        }
+
+        Arrays.fill(tile, 0, numFilters * tileArea, 0);
+
+        for (int m = 0; m < inLength; m++) {
+            int channelStart = inputOffset + m * inputArea;
+            int channelTaps = m * filterElements;
+
+            if (sparse) {
+                int lastRow = Math.min(inRows, (tileRows - 1) * stepSize + filterSize - padding);
+                int lastColumn = Math.min(inColumns, (tileColumns - 1) * stepSize + filterSize - padding);
+
+                for (int r = 0; r < lastRow; r++) {
+                    for (int c = 0; c < lastColumn; c++) {
+                        float value = (float) input[channelStart + r * inColumns + c];
+                        if (value == 0) {
+                            continue;
+                        }
+
+                        int pr = r + padding;
+                        int pc = c + padding;
+                        for (int x = pr % stepSize; x < filterSize && x <= pr; x += stepSize) {
+                            int i = (pr - x) / stepSize;
+                            if (i >= tileRows) {
+                                continue;
+                            }
+
+                            for (int y = pc % stepSize; y < filterSize && y <= pc; y += stepSize) {
+                                int j = (pc - y) / stepSize;
+                                if (j >= tileColumns) {
+                                    continue;
+                                }
+
+                                int cell = i * tileColumns + j;
+                                int tap = channelTaps + x * filterSize + y;
+                                for (int f = 0; f < numFilters; f++) {
+                                    tile[f * tileArea + cell] += value * filters[f * filterVolume + tap];
+                                }
+                            }
+                        }
+                    }
+                }
+            } else {
+                for (int f = 0; f < numFilters; f++) {
+                    for (int a = 0; a < filterSize; a++) {
+                        int firstRow = ConvolutionLayer.firstInside(a, stepSize, padding);
+                        int lastTileRow = ConvolutionLayer.lastInside(a, stepSize, padding, inRows, tileRows);
+
+                        for (int b = 0; b < filterSize; b++) {
+                            float weight = filters[f * filterVolume + channelTaps + a * filterSize + b];
+                            int firstColumn = ConvolutionLayer.firstInside(b, stepSize, padding);
+                            int lastTileColumn = ConvolutionLayer.lastInside(b, stepSize, padding, inColumns, tileColumns);
+
+                            for (int i = firstRow; i <= lastTileRow; i++) {
+                                int inputRowStart = channelStart + (i * stepSize + a - padding) * inColumns + b - padding;
+                                int tileRowStart = f * tileArea + i * tileColumns;
+
+                                for (int j = firstColumn; j <= lastTileColumn; j++) {
+                                    tile[tileRowStart + j] += weight * (float) input[inputRowStart + j * stepSize];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        for (int f = 0; f < numFilters; f++) {
+            int tileStart = f * tileArea;
+
+            for (int r = 0; r < getOutputRows(); r += poolStep) {
+                for (int c = 0; c < poolColumns; c += poolStep) {
+                    float max = Float.NEGATIVE_INFINITY;
+                    int maxIndex = -1;
+
+                    for (int x = 0; x < windowSize && r + x < convRows; x++) {
+                        for (int y = 0; y < windowSize && c + y < convColumns; y++) {
+                            float value = tile[tileStart + (r + x) * tileColumns + c + y];
+                            if (max < value) {
+                                max = value;
+                                maxIndex = (f * convRows + r + x) * convColumns + c + y;
+                            }
+                        }
+                    }
+
+                    int cell = f * poolArea + r * poolColumns + c;
+                    output[outputOffset + cell] = max;
+                    if (argmax != null) {
+                        argmax[cell] = maxIndex;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * Only the convolution positions that won a pooling window, plus each map's first value for the
+     * cells the pooling step skips, carry a gradient, so the filter gradient and the input gradient
+     * are gathered from those positions alone.
+     */
+    @Override
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Context fusedContext = (Context) context;
+        Tensor dLdX = fusedContext.inputGradient;
+
+        try {
+            checkElements(dLdO, getOutputElements());
+            boolean propagate = _previousLayer != null;
+            if (propagate) {
+                dLdX.fill(0);
+            }
+
+            double[] error = dLdO.getData();
+            int errorOffset = dLdO.getOffset();
+            double[] input = fusedContext.input.getData();
+            int inputOffset = fusedContext.input.getOffset();
+            double[] inputGradient = dLdX.getData();
+            double[] filters = _convolution.filterData();
+            float[] floatFilters = _convolution.floatFilterData();
+            double[] gradient = fusedContext.weightGradient == null ? null : fusedContext.weightGradient.getData();
+            float[] floatGradient = fusedContext.floatWeightGradient;
+
+            int filterSize = _convolution.getFilterSize();
+            int filterElements = filterSize * filterSize;
+            int inLength = _convolution.getInputLength();
+            int filterVolume = inLength * filterElements;
+            int stepSize = _convolution.getStepSize();
+            int padding = _convolution.getPadding();
+            int inRows = _convolution.getInputRows();
+            int inColumns = _convolution.getInputColumns();
+            int inputArea = inRows * inColumns;
+            int convColumns = _convolution.getOutputColumns();
+            int convArea = _convolution.getOutputRows() * convColumns;
+
+            for (int cell = 0; cell < getOutputElements(); cell++) {
+                int index = fusedContext.argmax[cell];
+                double e = error[errorOffset + cell];
+                // -1 only when no value in a visited window beat -infinity, e.g. all NaN; MaxPoolLayer skips those too
+                if (index == -1 || e == 0) {
+                    continue;
+                }
+
+                int f = index / convArea;
+                int position = index - f * convArea;
+                int windowRow = (position / convColumns) * stepSize - padding;
+                int windowColumn = (position % convColumns) * stepSize - padding;
+
+                for (int m = 0; m < inLength; m++) {
+                    int filterStart = f * filterVolume + m * filterElements;
+
+                    for (int a = Math.max(0, -windowRow); a < filterSize && windowRow + a < inRows; a++) {
+                        for (int b = Math.max(0, -windowColumn); b < filterSize && windowColumn + b < inColumns; b++) {
+                            int tap = filterStart + a * filterSize + b;
+                            int pixel = m * inputArea + (windowRow + a) * inColumns + windowColumn + b;
+
+                            if (gradient != null) {
+                                gradient[tap] += e * input[inputOffset + pixel];
+                                if (propagate) {
+                                    inputGradient[pixel] += e * filters[tap];
+                                }
+                            } else {
+                                floatGradient[tap] += (float) e * (float) input[inputOffset + pixel];
+                                if (propagate) {
+                                    inputGradient[pixel] += (float) e * floatFilters[tap];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error during backpropagation: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return dLdX;
+    }
+
+    private int tileLength() {
+        return tileLength(_convolution.numFilters(), _convolution.getOutputRows(), _convolution.getOutputColumns(), _pool.getWindowSize(), _pool.getStepSize());
+    }
+
+    @Override
+    public void applyGradients(LayerContext context, double scale) {
+        _convolution.applyGradients(context, scale);
+    }
+
+    @Override
+    public Optimizer getOptimizer() {
+        return _convolution.getOptimizer();
+    }
+
+    @Override
+    public void setOptimizer(Optimizer optimizer) {
+        _convolution.setOptimizer(optimizer);
+    }
+
+    @Override
+    protected void convertWeights(Precision precision) {
+        _convolution.convertTo(precision);
+        _pool.convertTo(precision);
+    }
+
+    @Override
+    public InferenceOp compile() {
+        return InferenceOp.convolutionPool(_convolution.filtersAsDouble(), _convolution.getFilterSize(), _convolution.getStepSize(),
+                _convolution.getPadding(), _pool.getWindowSize(), _pool.getStepSize(), _convolution.getInputLength(), _convolution.getInputRows(),
+                _convolution.getInputColumns(), _convolution.getSparseThreshold());
+    }
+
+    @Override
+    public int getOutputLength() {
+        return _pool.getOutputLength();
+    }
+
+    @Override
+    public int getOutputRows() {
+        return _pool.getOutputRows();
+    }
+
+    @Override
+    public int getOutputColumns() {
+        return _pool.getOutputColumns();
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _pool.getOutputElements();
+    }
+
+    /**
+     * Pooling state for one thread: where in the convolution output each pooled cell's max came from.
+     */
+    static final class Context extends LayerContext {
+        int[] argmax;  // Convolution-output index of each pooled cell's max, channel-major; skipped cells point at their map's first value
+        double[] tile;      // Convolution values of every filter, summed over the input channels
+        float[] floatTile;  // Used instead of tile in float32 mode
+    }
+}
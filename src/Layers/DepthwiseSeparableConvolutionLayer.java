@@ -0,0 +1,470 @@
+package Layers;
+
+import data.Tensor;
+
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.Random;
+
+import static data.MatrixUtility.gemm;
+import static data.MatrixUtility.narrow;
+import static data.MatrixUtility.widen;
+
+/**
+ * A convolution split into a depthwise step, which slides one filterSize x filterSize filter over
+ * each input channel on its own, and a pointwise step, which mixes the channels at every position
+ * with a 1x1 convolution. It reaches the same receptive field and number of output channels as a
+ * {@link ConvolutionLayer} for about {@code 1/numFilters + 1/filterSize^2} of its multiply-adds.
+ * <p>
+ * Like {@link ConvolutionLayer} the layer has no activation. Both steps keep their weights in one
+ * flat bank, depthwise filters first, so the accumulated gradient is a single buffer and merges
+ * like every other layer's. Every buffer the passes need lives in the context. Its int8 form
+ * is {@link QuantizedDepthwiseSeparableConvolutionLayer}.
+ */
+public class DepthwiseSeparableConvolutionLayer extends Layer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private transient long SEED;  // Random seed for initializing weights
+
+    private Tensor _weights;  // Depthwise filters (inLength, filterSize, filterSize), then pointwise filters (numFilters, inLength); null in float32 mode
+    private float[] _floatWeights;  // The same weights in float32 mode, otherwise null
+    private int _numFilters;  // Number of output channels
+    private int _filterSize;  // Size of each depthwise filter (assumed to be square)
+    private int _stepSize;  // Step size of the depthwise convolution
+
+    private int _inLength;  // Number of input channels
+    private int _inRows;  // Number of input rows
+    private int _inColumns;  // Number of input columns
+    private double _learningRate;  // Learning rate for updating the weights
+
+    /**
+     * Constructor to initialize the DepthwiseSeparableConvolutionLayer with specified parameters.
+     *
+     * @param _filterSize Size of the depthwise filters.
+     * @param _stepSize Step size for the depthwise convolution.
+     * @param _inLength Number of input channels.
+     * @param _inRows Number of input rows.
+     * @param _inColumns Number of input columns.
+     * @param SEED Random seed for weight initialization.
+     * @param numFilters Number of pointwise filters, and so of output channels.
+     * @param learningRate Learning rate for the layer.
+     */
+    public DepthwiseSeparableConvolutionLayer(int _filterSize, int _stepSize, int _inLength, int _inRows, int _inColumns,
+                                              long SEED, int numFilters, double learningRate) {
+        this._filterSize = _filterSize;
+        this._stepSize = _stepSize;
+        this._inLength = _inLength;
+        this._inRows = _inRows;
+        this._inColumns = _inColumns;
+        this.SEED = SEED;
+        _numFilters = numFilters;
+        _learningRate = learningRate;
+
+        _weights = new Tensor(depthwiseElements() + numFilters * _inLength);
+        double[] weights = _weights.getData();
+        Random random = new Random(SEED);
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextGaussian();  // Initialize weights with Gaussian distribution
+        }
+    }
+
+    /**
+     * @return Number of depthwise weights, which come first in the weight bank.
+     */
+    private int depthwiseElements() {
+        return _inLength * _filterSize * _filterSize;
+    }
+
+    @Override
+    public LayerContext createContext() {
+        Context context = new Context();
+        int outputArea = getOutputRows() * getOutputColumns();
+        context.output = new Tensor(getOutputLength(), getOutputRows(), getOutputColumns());
+        context.inputGradient = new Tensor(_inLength, _inRows, _inColumns);
+
+        if (getPrecision() == Precision.FLOAT32) {
+            context.floatWeightGradient = new float[_floatWeights.length];
+            context.floatInput = new float[_inLength * _inRows * _inColumns];
+            context.floatDepthwise = new float[_inLength * outputArea];
+            context.floatDepthwiseGradient = new float[_inLength * outputArea];
+            context.floatOutput = new float[getOutputElements()];
+            context.floatError = new float[getOutputElements()];
+        } else {
+            context.weightGradient = new Tensor(_weights.size());
+            context.depthwise = new double[_inLength * outputArea];
+            context.depthwiseGradient = new double[_inLength * outputArea];
+        }
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        Context separableContext = (Context) context;
+        checkElements(input, _inLength * _inRows * _inColumns);
+        separableContext.input = input;  // Store the input for use in backpropagation
+        int outputArea = getOutputRows() * getOutputColumns();
+
+        if (getPrecision() == Precision.FLOAT32) {
+            narrow(input.size(), input.getData(), input.getOffset(), separableContext.floatInput, 0);
+            depthwise(separableContext.floatInput, _floatWeights, separableContext.floatDepthwise);
+            gemm(false, false, _numFilters, outputArea, _inLength, 1.0f,
+                    _floatWeights, depthwiseElements(), _inLength,
+                    separableContext.floatDepthwise, 0, outputArea,
+                    0.0f, separableContext.floatOutput, 0, outputArea);
+            widen(getOutputElements(), separableContext.floatOutput, 0, separableContext.output.getData(), 0);
+        } else {
+            depthwise(input.getData(), input.getOffset(), _inLength, _inRows, _inColumns,
+                    _weights.getData(), _filterSize, _stepSize, separableContext.depthwise);
+            gemm(false, false, _numFilters, outputArea, _inLength, 1.0,
+                    _weights.getData(), depthwiseElements(), _inLength,
+                    separableContext.depthwise, 0, outputArea,
+                    0.0, separableContext.output.getData(), 0, outputArea);
+        }
+        return separableContext.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        int inputVolume = _inLength * _inRows * _inColumns;
+        checkElements(batch, batchSize * inputVolume);
+        Tensor output = new Tensor(batchSize, getOutputLength(), getOutputRows(), getOutputColumns());
+        LayerContext context = createContext();
+
+        for (int n = 0; n < batchSize; n++) {
+            Tensor sample = forward(batch.slice(n), context);
+            System.arraycopy(sample.getData(), 0, output.getData(), n * getOutputElements(), getOutputElements());
+        }
+
+        return output;
+    }
+
+    /**
+     * Convolves every input channel with its own depthwise filter. Each filter tap is one loop over
+     * the output rows, so the inner loop walks the input with a fixed stride.
+     *
+     * @param input Backing array of the input volume, shape (inLength, inRows, inColumns).
+     * @param inputOffset Index of the first input element.
+     * @param inLength Number of input channels.
+     * @param inRows Number of input rows.
+     * @param inColumns Number of input columns.
+     * @param filters Weight bank whose first {@code inLength * filterSize^2} values are the depthwise filters.
+     * @param filterSize Size of each filter.
+     * @param stepSize Step size of the convolution.
+     * @param output Receives the depthwise output, shape (inLength, outputRows, outputColumns), from index 0.
+     */
+    static void depthwise(double[] input, int inputOffset, int inLength, int inRows, int inColumns,
+                          double[] filters, int filterSize, int stepSize, double[] output) {
+        int outRows = (inRows - filterSize) / stepSize + 1;
+        int outColumns = (inColumns - filterSize) / stepSize + 1;
+        int outputArea = outRows * outColumns;
+        Arrays.fill(output, 0, inLength * outputArea, 0);
+
+        for (int m = 0; m < inLength; m++) {
+            int channelStart = inputOffset + m * inRows * inColumns;
+
+            for (int x = 0; x < filterSize; x++) {
+                for (int y = 0; y < filterSize; y++) {
+                    double weight = filters[(m * filterSize + x) * filterSize + y];
+
+                    for (int i = 0; i < outRows; i++) {
+                        int inputRowStart = channelStart + (i * stepSize + x) * inColumns + y;
+                        int outputRowStart = m * outputArea + i * outColumns;
+
+                        for (int j = 0; j < outColumns; j++) {
+                            output[outputRowStart + j] += weight * input[inputRowStart + j * stepSize];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Float32 form of {@link #depthwise(double[], int, int, int, int, double[], int, int, double[])}
+     * for this layer's shapes, reading an input already rounded to float.
+     */
+    private void depthwise(float[] input, float[] filters, float[] output) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int outputArea = outRows * outColumns;
+        Arrays.fill(output, 0);
+
+        for (int m = 0; m < _inLength; m++) {
+            int channelStart = m * _inRows * _inColumns;
+
+            for (int x = 0; x < _filterSize; x++) {
+                for (int y = 0; y < _filterSize; y++) {
+                    float weight = filters[(m * _filterSize + x) * _filterSize + y];
+
+                    for (int i = 0; i < outRows; i++) {
+                        int inputRowStart = channelStart + (i * _stepSize + x) * _inColumns + y;
+                        int outputRowStart = m * outputArea + i * outColumns;
+
+                        for (int j = 0; j < outColumns; j++) {
+                            output[outputRowStart + j] += weight * input[inputRowStart + j * _stepSize];
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The pointwise step is backpropagated with two matrix multiplies. The depthwise step then
+     * gathers each tap's gradient from the positions it was applied at and, unless this is the
+     * first layer, scatters the input gradient back through the same taps.
+     */
+    @Override
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Context separableContext = (Context) context;
+        Tensor dLdX = separableContext.inputGradient;
+
+        try {
+            checkElements(dLdO, getOutputElements());
+            boolean propagate = _previousLayer != null;
+            if (propagate) {
+                dLdX.fill(0);
+            }
+
+            if (getPrecision() == Precision.FLOAT32) {
+                narrow(getOutputElements(), dLdO.getData(), dLdO.getOffset(), separableContext.floatError, 0);
+                backpropagateFloat(separableContext, propagate);
+            } else {
+                backpropagate(dLdO.getData(), dLdO.getOffset(), separableContext, propagate);
+            }
+        } catch (Exception e) {
+            System.err.println("Error during backpropagation: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return dLdX;
+    }
+
+    /**
+     * Accumulates the weight gradients and, if asked, the gradient w.r.t. the input.
+     *
+     * @param error Backing array of dL/dO.
+     * @param errorStart Index of dL/dO's first element.
+     * @param separableContext The context used for the forward pass.
+     * @param propagate Whether to compute the gradient w.r.t. the input.
+     */
+    private void backpropagate(double[] error, int errorStart, Context separableContext, boolean propagate) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int outputArea = outRows * outColumns;
+        double[] weights = _weights.getData();
+        double[] gradient = separableContext.weightGradient.getData();
+        double[] depthwiseGradient = separableContext.depthwiseGradient;
+
+        // dL/dP += dL/dO (numFilters x area) * D^T (area x inLength)
+        gemm(false, true, _numFilters, _inLength, outputArea, 1.0,
+                error, errorStart, outputArea,
+                separableContext.depthwise, 0, outputArea,
+                1.0, gradient, depthwiseElements(), _inLength);
+
+        // dL/dD = P^T (inLength x numFilters) * dL/dO (numFilters x area)
+        gemm(true, false, _inLength, outputArea, _numFilters, 1.0,
+                weights, depthwiseElements(), _inLength,
+                error, errorStart, outputArea,
+                0.0, depthwiseGradient, 0, outputArea);
+
+        double[] input = separableContext.input.getData();
+        double[] inputGradient = separableContext.inputGradient.getData();
+
+        for (int m = 0; m < _inLength; m++) {
+            int channelStart = m * _inRows * _inColumns;
+            int inputStart = separableContext.input.getOffset() + channelStart;
+
+            for (int x = 0; x < _filterSize; x++) {
+                for (int y = 0; y < _filterSize; y++) {
+                    int tap = (m * _filterSize + x) * _filterSize + y;
+                    double weight = weights[tap];
+                    double tapGradient = 0;
+
+                    for (int i = 0; i < outRows; i++) {
+                        int inputRowStart = (i * _stepSize + x) * _inColumns + y;
+                        int errorRowStart = m * outputArea + i * outColumns;
+
+                        for (int j = 0; j < outColumns; j++) {
+                            double e = depthwiseGradient[errorRowStart + j];
+                            tapGradient += e * input[inputStart + inputRowStart + j * _stepSize];
+                            if (propagate) {
+                                inputGradient[channelStart + inputRowStart + j * _stepSize] += e * weight;
+                            }
+                        }
+                    }
+
+                    gradient[tap] += tapGradient;
+                }
+            }
+        }
+    }
+
+    /**
+     * Float32 form of {@link #backpropagate}, reading dL/dO from the context's float error buffer.
+     */
+    private void backpropagateFloat(Context separableContext, boolean propagate) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
+        int outputArea = outRows * outColumns;
+        float[] error = separableContext.floatError;
+        float[] gradient = separableContext.floatWeightGradient;
+        float[] depthwiseGradient = separableContext.floatDepthwiseGradient;
+
+        gemm(false, true, _numFilters, _inLength, outputArea, 1.0f,
+                error, 0, outputArea,
+                separableContext.floatDepthwise, 0, outputArea,
+                1.0f, gradient, depthwiseElements(), _inLength);
+
+        gemm(true, false, _inLength, outputArea, _numFilters, 1.0f,
+                _floatWeights, depthwiseElements(), _inLength,
+                error, 0, outputArea,
+                0.0f, depthwiseGradient, 0, outputArea);
+
+        float[] input = separableContext.floatInput;
+        double[] inputGradient = separableContext.inputGradient.getData();
+
+        for (int m = 0; m < _inLength; m++) {
+            int channelStart = m * _inRows * _inColumns;
+
+            for (int x = 0; x < _filterSize; x++) {
+                for (int y = 0; y < _filterSize; y++) {
+                    int tap = (m * _filterSize + x) * _filterSize + y;
+                    float weight = _floatWeights[tap];
+                    float tapGradient = 0;
+
+                    for (int i = 0; i < outRows; i++) {
+                        int inputRowStart = channelStart + (i * _stepSize + x) * _inColumns + y;
+                        int errorRowStart = m * outputArea + i * outColumns;
+
+                        for (int j = 0; j < outColumns; j++) {
+                            float e = depthwiseGradient[errorRowStart + j];
+                            tapGradient += e * input[inputRowStart + j * _stepSize];
+                            if (propagate) {
+                                inputGradient[inputRowStart + j * _stepSize] += e * weight;
+                            }
+                        }
+                    }
+
+                    gradient[tap] += tapGradient;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void applyGradients(LayerContext context, double scale) {
+        if (getPrecision() == Precision.FLOAT32) {
+            getOptimizer().update(_floatWeights, context.floatWeightGradient, _learningRate, scale);
+        } else {
+            getOptimizer().update(_weights.getData(), context.weightGradient.getData(), _learningRate, scale);
+        }
+    }
+
+    @Override
+    protected void convertWeights(Precision precision) {
+        if (precision == Precision.FLOAT32) {
+            _floatWeights = new float[_weights.size()];
+            narrow(_floatWeights.length, _weights.getData(), _weights.getOffset(), _floatWeights, 0);
+            _weights = null;
+        } else {
+            _weights = new Tensor(_floatWeights.length);
+            widen(_floatWeights.length, _floatWeights, 0, _weights.getData(), 0);
+            _floatWeights = null;
+        }
+    }
+
+    @Override
+    public InferenceOp compile() {
+        double[] weights;
+        if (_weights != null) {
+            weights = _weights.toArray();
+        } else {
+            weights = new double[_floatWeights.length];
+            widen(weights.length, _floatWeights, 0, weights, 0);
+        }
+        return InferenceOp.depthwiseSeparable(weights, _filterSize, _stepSize, _numFilters, _inLength, _inRows, _inColumns);
+    }
+
+    /**
+     * Quantizes each depthwise and each pointwise filter symmetrically with its own scale.
+     */
+    @Override
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        double[] weights;
+        if (_weights != null) {
+            weights = _weights.toArray();
+        } else {
+            weights = new double[_floatWeights.length];
+            widen(weights.length, _floatWeights, 0, weights, 0);
+        }
+
+        int filterArea = _filterSize * _filterSize;
+        byte[] depthwiseFilters = new byte[depthwiseElements()];
+        float[] depthwiseScales = quantizeFilters(weights, 0, _inLength, filterArea, depthwiseFilters);
+        byte[] pointwiseFilters = new byte[_numFilters * _inLength];
+        float[] pointwiseScales = quantizeFilters(weights, depthwiseElements(), _numFilters, _inLength, pointwiseFilters);
+
+        return new QuantizedDepthwiseSeparableConvolutionLayer(depthwiseFilters, depthwiseScales,
+                pointwiseFilters, pointwiseScales, _filterSize, _stepSize, _inRows, _inColumns, inputScale, outputScale);
+    }
+
+    /**
+     * Quantizes consecutive filters of the weight bank, each with the scale of its largest weight.
+     *
+     * @return The scale of each filter.
+     */
+    private static float[] quantizeFilters(double[] weights, int start, int count, int filterElements, byte[] filters) {
+        float[] scales = new float[count];
+
+        for (int f = 0; f < count; f++) {
+            double max = 0;
+            for (int k = f * filterElements; k < (f + 1) * filterElements; k++) {
+                max = Math.max(max, Math.abs(weights[start + k]));
+            }
+
+            scales[f] = QuantizedLayer.scaleFor(max);
+            for (int k = f * filterElements; k < (f + 1) * filterElements; k++) {
+                filters[k] = QuantizedLayer.quantize(weights[start + k], scales[f]);
+            }
+        }
+
+        return scales;
+    }
+
+    @Override
+    public int getOutputLength() {
+        return _numFilters;
+    }
+
+    @Override
+    public int getOutputRows() {
+        return (_inRows - _filterSize) / _stepSize + 1;
+    }
+
+    @Override
+    public int getOutputColumns() {
+        return (_inColumns - _filterSize) / _stepSize + 1;
+    }
+
+    @Override
+    public int getOutputElements() {
+        return getOutputLength() * getOutputRows() * getOutputColumns();
+    }
+
+    /**
+     * Depthwise activations and their gradients for one thread, in the layer's precision.
+     */
+    static final class Context extends LayerContext {
+        double[] depthwise;               // Depthwise output from the last forward pass; the pointwise step's input
+        double[] depthwiseGradient;       // Gradient w.r.t. the depthwise output
+        float[] floatInput;               // Input rounded to float32, kept for backpropagation
+        float[] floatDepthwise;           // Used instead of depthwise in float32 mode
+        float[] floatDepthwiseGradient;   // Used instead of depthwiseGradient in float32 mode
+        float[] floatOutput;              // Float32 output before widening into the output tensor
+        float[] floatError;               // dL/dO narrowed to float32
+    }
+}
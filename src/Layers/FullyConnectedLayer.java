@@ -1,22 +1,44 @@
 package Layers;
 
+import data.Tensor;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Random;
 
+import static data.MatrixUtility.csrger;
+import static data.MatrixUtility.csrmv;
+import static data.MatrixUtility.gemm;
+import static data.MatrixUtility.gemv;
+import static data.MatrixUtility.ger;
+import static data.MatrixUtility.narrow;
+import static data.MatrixUtility.widen;
+
+/**
+ * A fully connected layer with a leaky-ReLU activation.
+ * <p>
+ * After {@link #prune} the layer keeps only its largest-magnitude weights, stored row by row in
+ * compressed sparse row (CSR) form: input neuron i's weights are at indices
+ * {@code _rowStarts[i] .. _rowStarts[i + 1]} of the weight array, feeding the output neurons in
+ * {@code _columns}. The forward and backward passes then touch only those weights. Pruned weights
+ * get no gradient, so training a pruned layer fine-tunes the survivors and the sparsity is kept.
+ */
 public class FullyConnectedLayer extends Layer {
     @Serial
     private static final long serialVersionUID = 1L;
     private transient long SEED;  // Random seed for initializing weights
     private final double leak = 0.01;  // Leak factor for Leaky ReLU activation
 
-    private double[][] _weights;  // Weights of the layer
+    private Tensor _weightMatrix;  // Weights of the layer, shape (inLength, outLength), or only the kept weights once pruned; null in float32 mode
+    private float[] _floatWeights;  // The same weights in float32 mode, otherwise null
+    private int[] _rowStarts;  // Once pruned, index of each input neuron's first kept weight plus the kept count; null while dense
+    private int[] _columns;  // Once pruned, the output neuron each kept weight feeds; null while dense
     private int _inLength;  // Number of input neurons
     private int _outLength;  // Number of output neurons
     private double _learningRate;  // Learning rate for weight updates
-
-    private double[] lastZ;  // Stores the weighted sum before activation
-    private double[] lastX;  // Stores the input for use in backpropagation
+    private boolean _linear;  // Whether the weighted sums are output without an activation, e.g. as scores for a softmax
 
     /**
      * Constructor to initialize the FullyConnectedLayer with specified parameters.
@@ -32,94 +54,228 @@ public class FullyConnectedLayer extends Layer {
         this.SEED = SEED;
         this._learningRate = learningRate;
 
-        _weights = new double[_inLength][_outLength];  // Initialize the weight matrix
+        _weightMatrix = new Tensor(_inLength, _outLength);  // Initialize the weight matrix
         setRandomWeights();  // Set random weights
     }
 
     /**
      * Performs the forward pass of the fully connected layer.
      *
-     * @param input The input vector to the layer.
+     * @param input The input to the layer; any shape with {@code _inLength} elements.
      * @return The output vector after applying the weights and activation function.
      */
-    public double[] fullyConnectedForwardPass(double[] input) {
-        lastX = input;  // Store input for use in backpropagation
+    public Tensor fullyConnectedForwardPass(Tensor input) {
+        return forward(input, defaultContext());
+    }
+
+    @Override
+    public LayerContext createContext() {
+        Context context = new Context();
+        context.output = new Tensor(_outLength);
+        context.inputGradient = new Tensor(_inLength);
 
-        double[] z = new double[_outLength];  // Weighted sum before activation
-        double[] out = new double[_outLength];  // Output after activation
+        if (getPrecision() == Precision.FLOAT32) {
+            context.floatInput = new float[_inLength];
+            context.floatZ = new float[_outLength];
+            context.floatDLdz = new float[_outLength];
+            context.floatInputGradient = new float[_inLength];
+            context.floatWeightGradient = new float[weightCount()];
+        } else {
+            context.lastZ = new double[_outLength];
+            context.dLdz = new double[_outLength];
+            context.weightGradient = isPruned() ? new Tensor(weightCount()) : new Tensor(_inLength, _outLength);
+        }
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        Context fcContext = (Context) context;
+        checkElements(input, _inLength);
+        fcContext.input = input;  // Store input for use in backpropagation
+
+        if (getPrecision() == Precision.FLOAT32) {
+            forwardFloat(input, fcContext);
+            return fcContext.output;
+        }
+
+        double[] z = fcContext.lastZ;  // Weighted sum before activation, kept for backpropagation
+        double[] out = fcContext.output.getData();  // Output after activation
 
         try {
-            for (int i = 0; i < _inLength; i++) {
-                for (int j = 0; j < _outLength; j++) {
-                    z[j] += input[i] * _weights[i][j];  // Calculate weighted sum
-                }
+            // z = W^T x, streaming the rows of W in memory order
+            if (isPruned()) {
+                csrmv(true, _inLength, _outLength, 1.0, _rowStarts, _columns, _weightMatrix.getData(),
+                        fcContext.input.getData(), fcContext.input.getOffset(), 0.0, z, 0);
+            } else {
+                gemv(true, _inLength, _outLength, 1.0, _weightMatrix.getData(), 0, _outLength,
+                        fcContext.input.getData(), fcContext.input.getOffset(), 0.0, z, 0);
             }
 
-            lastZ = z;  // Store weighted sum for use in backpropagation
-
             for (int j = 0; j < _outLength; j++) {
-                out[j] = reLu(z[j]);  // Apply ReLU activation function
+                out[j] = _linear ? z[j] : reLu(z[j]);  // Apply ReLU activation function
             }
         } catch (Exception e) {
             System.err.println("Error during forward pass: " + e.getMessage());
             e.printStackTrace();
         }
 
-        return out;
+        return fcContext.output;
     }
 
-    @Override
-    public double[] getOutput(List<double[][]> input) {
-            double[] vector = matrixToVector(input);
-            return getOutput(vector);
+    /**
+     * Float32 form of the forward pass. The input is rounded once into the context so the
+     * backward pass can reuse it.
+     */
+    private void forwardFloat(Tensor input, Context fcContext) {
+        float[] x = fcContext.floatInput;
+        float[] z = fcContext.floatZ;
+        double[] out = fcContext.output.getData();
+
+        try {
+            narrow(_inLength, input.getData(), input.getOffset(), x, 0);
+            if (isPruned()) {
+                csrmv(true, _inLength, _outLength, 1.0f, _rowStarts, _columns, _floatWeights, x, 0, 0.0f, z, 0);
+            } else {
+                gemv(true, _inLength, _outLength, 1.0f, _floatWeights, 0, _outLength, x, 0, 0.0f, z, 0);
+            }
+
+            for (int j = 0; j < _outLength; j++) {
+                out[j] = _linear || z[j] > 0 ? z[j] : 0;  // Apply ReLU activation function
+            }
+        } catch (Exception e) {
+            System.err.println("Error during forward pass: " + e.getMessage());
+            e.printStackTrace();
+        }
     }
 
     @Override
-    public double[] getOutput(double[] input) {
-            double[] forwardPass = fullyConnectedForwardPass(input);
-            if (_nextLayer != null) {
-                return _nextLayer.getOutput(forwardPass);
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        checkElements(batch, batchSize * _inLength);
+        Tensor output = new Tensor(batchSize, _outLength);
+
+        double[] z = output.getData();
+
+        if (getPrecision() == Precision.FLOAT32) {
+            float[] x = new float[batchSize * _inLength];
+            float[] floatZ = new float[batchSize * _outLength];
+            narrow(x.length, batch.getData(), batch.getOffset(), x, 0);
+
+            if (isPruned()) {
+                for (int n = 0; n < batchSize; n++) {
+                    csrmv(true, _inLength, _outLength, 1.0f, _rowStarts, _columns, _floatWeights,
+                            x, n * _inLength, 0.0f, floatZ, n * _outLength);
+                }
             } else {
-                return forwardPass;
+                gemm(false, false, batchSize, _outLength, _inLength, 1.0f,
+                        x, 0, _inLength, _floatWeights, 0, _outLength,
+                        0.0f, floatZ, 0, _outLength);
+            }
+
+            for (int k = 0; k < z.length; k++) {
+                z[k] = _linear || floatZ[k] > 0 ? floatZ[k] : 0;
             }
+            return output;
+        }
+
+        if (isPruned()) {
+            // The kept weights are few enough that a sparse product per sample beats a dense gemm
+            for (int n = 0; n < batchSize; n++) {
+                csrmv(true, _inLength, _outLength, 1.0, _rowStarts, _columns, _weightMatrix.getData(),
+                        batch.getData(), batch.getOffset() + n * _inLength, 0.0, z, n * _outLength);
+            }
+        } else {
+            // Z = X W: each weight row is streamed once and applied to every sample in the batch
+            gemm(false, false, batchSize, _outLength, _inLength, 1.0,
+                    batch.getData(), batch.getOffset(), _inLength,
+                    _weightMatrix.getData(), 0, _outLength,
+                    0.0, z, 0, _outLength);
+        }
+
+        if (!_linear) {
+            for (int k = 0; k < z.length; k++) {
+                z[k] = reLu(z[k]);
+            }
+        }
+
+        return output;
     }
 
     @Override
-    public void backPropagation(double[] dLdO) {
-        double[] dLdX = new double[_inLength];  // Gradient w.r.t input of this layer
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Context fcContext = (Context) context;
+        Tensor dLdX = fcContext.inputGradient;  // Gradient w.r.t input of this layer
 
         try {
-            for (int k = 0; k < _inLength; k++) {
-                double dLdX_sum = 0;
-
-                for (int j = 0; j < _outLength; j++) {
-                    double dOdz = derivativeReLu(lastZ[j]);  // Derivative of activation function
-                    double dzdw = lastX[k];  // Partial derivative of z w.r.t weight
-                    double dZdX = _weights[k][j];  // Partial derivative of z w.r.t input
-
-                    double dLdw = dLdO[j] * dOdz * dzdw;  // Gradient w.r.t weight
+            checkElements(dLdO, _outLength);
+            double[] error = dLdO.getData();
+            int errorOffset = dLdO.getOffset();
 
-                    _weights[k][j] -= dLdw * _learningRate;  // Update the weights
+            if (getPrecision() == Precision.FLOAT32) {
+                backwardFloat(error, errorOffset, fcContext);
+                return dLdX;
+            }
 
-                    dLdX_sum += dLdO[j] * dOdz * dZdX;  // Accumulate gradient w.r.t input
-                }
+            double[] lastZ = fcContext.lastZ;
+            double[] dLdz = fcContext.dLdz;
 
-                dLdX[k] = dLdX_sum;
+            for (int j = 0; j < _outLength; j++) {
+                dLdz[j] = _linear ? error[errorOffset + j] : error[errorOffset + j] * derivativeReLu(lastZ[j]);  // Chain through the activation function
             }
 
-            if (_previousLayer != null) {
-                _previousLayer.backPropagation(dLdX);
+            if (isPruned()) {
+                // The same products over the kept weights only, so pruned weights stay zero
+                csrger(_inLength, 1.0, fcContext.input.getData(), fcContext.input.getOffset(), dLdz, 0,
+                        _rowStarts, _columns, fcContext.weightGradient.getData());
+                csrmv(false, _inLength, _outLength, 1.0, _rowStarts, _columns, _weightMatrix.getData(),
+                        dLdz, 0, 0.0, dLdX.getData(), dLdX.getOffset());
+                return dLdX;
             }
+
+            // dL/dW += x dL/dz^T; rows fed by a zero input are left untouched
+            ger(_inLength, _outLength, 1.0, fcContext.input.getData(), fcContext.input.getOffset(), dLdz, 0,
+                    fcContext.weightGradient.getData(), 0, _outLength);
+
+            // dL/dx = W dL/dz
+            gemv(false, _inLength, _outLength, 1.0, _weightMatrix.getData(), 0, _outLength,
+                    dLdz, 0, 0.0, dLdX.getData(), dLdX.getOffset());
         } catch (Exception e) {
             System.err.println("Error during backpropagation: " + e.getMessage());
             e.printStackTrace();
         }
+
+        return dLdX;
+    }
+
+    /**
+     * Float32 form of the backward pass, widening the input gradient into the context's double buffer.
+     */
+    private void backwardFloat(double[] error, int errorOffset, Context fcContext) {
+        float[] z = fcContext.floatZ;
+        float[] dLdz = fcContext.floatDLdz;
+
+        for (int j = 0; j < _outLength; j++) {
+            dLdz[j] = (float) error[errorOffset + j] * (_linear || z[j] > 0 ? 1 : (float) leak);
+        }
+
+        if (isPruned()) {
+            csrger(_inLength, 1.0f, fcContext.floatInput, 0, dLdz, 0, _rowStarts, _columns, fcContext.floatWeightGradient);
+            csrmv(false, _inLength, _outLength, 1.0f, _rowStarts, _columns, _floatWeights, dLdz, 0, 0.0f, fcContext.floatInputGradient, 0);
+        } else {
+            ger(_inLength, _outLength, 1.0f, fcContext.floatInput, 0, dLdz, 0, fcContext.floatWeightGradient, 0, _outLength);
+            gemv(false, _inLength, _outLength, 1.0f, _floatWeights, 0, _outLength, dLdz, 0, 0.0f, fcContext.floatInputGradient, 0);
+        }
+        widen(_inLength, fcContext.floatInputGradient, 0, fcContext.inputGradient.getData(), 0);
     }
 
     @Override
-    public void backPropagation(List<double[][]> dLdO) {
-            double[] vector = matrixToVector(dLdO);
-            backPropagation(vector);
+    public void applyGradients(LayerContext context, double scale) {
+        if (getPrecision() == Precision.FLOAT32) {
+            getOptimizer().update(_floatWeights, context.floatWeightGradient, _learningRate, scale);
+        } else {
+            getOptimizer().update(_weightMatrix.getData(), context.weightGradient.getData(), _learningRate, scale);
+        }
     }
 
     @Override
@@ -148,11 +304,208 @@ public class FullyConnectedLayer extends Layer {
     public void setRandomWeights() {
         Random random = new Random(SEED);
 
-            for (int i = 0; i < _inLength; i++) {
-                for (int j = 0; j < _outLength; j++) {
-                    _weights[i][j] = random.nextGaussian();  // Initialize weights with Gaussian distribution
+        if (getPrecision() == Precision.FLOAT32) {
+            for (int i = 0; i < _floatWeights.length; i++) {
+                _floatWeights[i] = (float) random.nextGaussian();
+            }
+            return;
+        }
+
+        double[] weights = _weightMatrix.getData();
+
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = random.nextGaussian();  // Initialize weights with Gaussian distribution
+        }
+    }
+
+    @Override
+    protected void convertWeights(Precision precision) {
+        if (precision == Precision.FLOAT32) {
+            _floatWeights = new float[weightCount()];
+            narrow(_floatWeights.length, _weightMatrix.getData(), 0, _floatWeights, 0);
+            _weightMatrix = null;
+        } else {
+            _weightMatrix = isPruned() ? new Tensor(weightCount()) : new Tensor(_inLength, _outLength);
+            widen(_floatWeights.length, _floatWeights, 0, _weightMatrix.getData(), 0);
+            _floatWeights = null;
+        }
+    }
+
+    /**
+     * Zeroes the smallest-magnitude weights and switches the layer to sparse storage and kernels.
+     * The sparsity counts every weight of the full matrix, so pruning an already pruned layer to a
+     * higher sparsity removes more weights, and to a lower one removes none. Ties at the cutoff
+     * are all pruned, so slightly more weights than asked for may go. Execution contexts created
+     * before pruning must not be used afterwards; the layer's own context is replaced.
+     *
+     * @param sparsity Fraction of the weights to remove, from 0 (keep all) to 1 (remove all).
+     */
+    public void prune(double sparsity) {
+        if (!(sparsity >= 0 && sparsity <= 1)) {
+            throw new IllegalArgumentException("Sparsity must be between 0 and 1, was " + sparsity);
+        }
+
+        double[] weights = weightsAsDouble();
+        int prunedCount = (int) Math.round(sparsity * weights.length);
+        int[] rowStarts = new int[_inLength + 1];
+        int[] columns = new int[weights.length];
+        double[] kept = new double[weights.length];
+        int count = 0;
+
+        double cutoff = -1;  // Every magnitude is above this, so nothing is pruned
+        if (prunedCount > 0) {
+            double[] magnitudes = new double[weights.length];
+            for (int k = 0; k < weights.length; k++) {
+                magnitudes[k] = Math.abs(weights[k]);
+            }
+            Arrays.sort(magnitudes);
+            cutoff = magnitudes[prunedCount - 1];
+        }
+
+        for (int i = 0; i < _inLength; i++) {
+            rowStarts[i] = count;
+            for (int j = 0; j < _outLength; j++) {
+                double weight = weights[i * _outLength + j];
+                if (Math.abs(weight) > cutoff && weight != 0) {  // Weights pruned earlier are already zero
+                    columns[count] = j;
+                    kept[count++] = weight;
                 }
             }
+        }
+        rowStarts[_inLength] = count;
+
+        _rowStarts = rowStarts;
+        _columns = Arrays.copyOf(columns, count);
+        if (getPrecision() == Precision.FLOAT32) {
+            _floatWeights = new float[count];
+            narrow(count, kept, 0, _floatWeights, 0);  // Exact, as the weights were widened from float
+        } else {
+            _weightMatrix = Tensor.wrap(Arrays.copyOf(kept, count), count);
+        }
+        resetDefaultContext();  // Its weight gradient is sized for the old weights
+    }
+
+    /**
+     * Sets whether the layer outputs its weighted sums directly instead of through the ReLU, as
+     * the scores feeding a {@link SoftmaxCrossEntropyLayer} should be: the ReLU would flatten
+     * every negative score to the same probability and stop most of the gradient.
+     *
+     * @param linear Whether to skip the activation.
+     */
+    public void setLinear(boolean linear) {
+        _linear = linear;
+    }
+
+    /**
+     * @return Whether the layer outputs its weighted sums without an activation.
+     */
+    public boolean isLinear() {
+        return _linear;
+    }
+
+    /**
+     * @return Whether the layer has been pruned and stores only its kept weights.
+     */
+    public boolean isPruned() {
+        return _rowStarts != null;
+    }
+
+    /**
+     * @return Number of weights the layer stores: all of them, or only the kept ones once pruned.
+     */
+    public int weightCount() {
+        return isPruned() ? _columns.length : _inLength * _outLength;
+    }
+
+    @Override
+    public InferenceOp compile() {
+        if (isPruned()) {
+            return InferenceOp.sparseFullyConnected(_rowStarts.clone(), _columns.clone(), storedWeightsAsDouble(), _inLength, _outLength, _linear);
+        }
+        return InferenceOp.fullyConnected(weightsAsDouble(), _inLength, _outLength, _linear);
+    }
+
+    /**
+     * @return A copy of the weights in double precision, whatever precision the layer runs in,
+     * as a dense (inLength, outLength) matrix even if the layer is pruned.
+     */
+    private double[] weightsAsDouble() {
+        double[] stored = storedWeightsAsDouble();
+        if (!isPruned()) {
+            return stored;
+        }
+
+        double[] weights = new double[_inLength * _outLength];
+        for (int i = 0; i < _inLength; i++) {
+            for (int k = _rowStarts[i]; k < _rowStarts[i + 1]; k++) {
+                weights[i * _outLength + _columns[k]] = stored[k];
+            }
+        }
+        return weights;
+    }
+
+    /**
+     * @return A copy of the stored weights in double precision, whatever precision the layer runs in.
+     */
+    private double[] storedWeightsAsDouble() {
+        if (_weightMatrix != null) {
+            return _weightMatrix.toArray();
+        }
+
+        double[] weights = new double[_floatWeights.length];
+        widen(weights.length, _floatWeights, 0, weights, 0);
+        return weights;
+    }
+
+    /**
+     * Quantizes each output neuron's column of weights symmetrically with its own scale.
+     */
+    @Override
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        double[] weights = weightsAsDouble();
+
+        double[] max = new double[_outLength];
+        for (int k = 0; k < weights.length; k++) {
+            max[k % _outLength] = Math.max(max[k % _outLength], Math.abs(weights[k]));
+        }
+
+        float[] columnScales = new float[_outLength];
+        for (int j = 0; j < _outLength; j++) {
+            columnScales[j] = QuantizedLayer.scaleFor(max[j]);
+        }
+
+        byte[] quantized = new byte[weights.length];
+        for (int k = 0; k < weights.length; k++) {
+            quantized[k] = QuantizedLayer.quantize(weights[k], columnScales[k % _outLength]);
+        }
+
+        return new QuantizedFullyConnectedLayer(quantized, columnScales, _inLength, _linear, inputScale, outputScale);
+    }
+
+    /**
+     * Restores the layer from a stream, upgrading models saved when the weights were
+     * stored as a jagged {@code double[in][out]} array into the flat weight matrix.
+     */
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _inLength = fields.get("_inLength", 0);
+        _outLength = fields.get("_outLength", 0);
+        _learningRate = fields.get("_learningRate", 0.0);
+        _linear = fields.get("_linear", false);
+
+        if (fields.getObjectStreamClass().getField("_weights") != null) {
+            double[][] legacyWeights = (double[][]) fields.get("_weights", null);
+            _weightMatrix = new Tensor(_inLength, _outLength);
+            for (int i = 0; i < _inLength; i++) {
+                System.arraycopy(legacyWeights[i], 0, _weightMatrix.getData(), i * _outLength, _outLength);
+            }
+        } else {
+            _weightMatrix = (Tensor) fields.get("_weightMatrix", null);
+            _floatWeights = (float[]) fields.get("_floatWeights", null);
+            _rowStarts = (int[]) fields.get("_rowStarts", null);
+            _columns = (int[]) fields.get("_columns", null);
+        }
     }
 
     /**
@@ -174,4 +527,18 @@ public class FullyConnectedLayer extends Layer {
     public double derivativeReLu(double input) {
         return input > 0 ? 1 : leak;
     }
+
+    /**
+     * Forward-pass state for one thread: the weighted sums before activation, in the layer's precision.
+     */
+    static final class Context extends LayerContext {
+        double[] lastZ;  // Stores the weighted sum before activation
+        double[] dLdz;   // Gradient w.r.t. the weighted sum
+
+        // Float32-mode counterparts, plus the rounded input and the input gradient before widening
+        float[] floatInput;
+        float[] floatZ;
+        float[] floatDLdz;
+        float[] floatInputGradient;
+    }
 }
@@ -0,0 +1,273 @@
+package Layers;
+
+import static data.MatrixUtility.csrmv;
+import static data.MatrixUtility.gemm;
+import static data.MatrixUtility.gemv;
+
+/**
+ * One step of a compiled inference plan: a layer's forward pass with its shapes fixed and its
+ * weights copied out of the layer.
+ * <p>
+ * Every kind of layer compiles to this one final class, so a plan that calls {@link #run} in a
+ * loop has a single, monomorphic call site. The kind is switched on inside {@code run} and each
+ * branch runs a private kernel with no casts, shape checks or tensor views. Ops are immutable and
+ * keep all per-call state in the caller's buffers, so one op can run on several threads at once.
+ */
+public final class InferenceOp {
+    static final int CONVOLUTION = 0;
+    static final int MAX_POOL = 1;
+    static final int FULLY_CONNECTED = 2;
+    static final int CONVOLUTION_POOL = 3;
+    static final int DEPTHWISE_SEPARABLE = 4;
+    static final int AVERAGE_POOL = 5;
+    static final int SPARSE_FULLY_CONNECTED = 6;
+    static final int SOFTMAX = 7;
+
+    private final int _kind;           // Which kernel run() dispatches to
+    private final double[] _weights;   // Filters (numFilters, inLength, size, size), a depthwise-separable weight bank, weights (in, out) or a pruned layer's kept weights; null for pooling
+    private final int[] _rowStarts;    // Index of each input neuron's first kept weight in a pruned layer, otherwise null
+    private final int[] _columns;      // Output neuron of each kept weight in a pruned layer, otherwise null
+    private final int _size;           // Filter or pooling window size; window rows of an average pool
+    private final int _stepSize;
+    private final int _padding;        // Zero rows and columns around a convolution's input
+    private final int _windowSize;     // Pooling window size of a fused convolution; window columns of an average pool
+    private final int _poolStep;       // Pooling step size of a fused convolution
+    private final int _inLength;       // Input channels, or input neurons for a fully connected op
+    private final int _inRows;
+    private final int _inColumns;
+    private final int _outLength;      // Output channels, or output neurons
+    private final int _outRows;
+    private final int _outColumns;
+    private final int _inputElements;
+    private final int _outputElements;
+    private final int _scratchLength;
+    private final double _sparseThreshold;  // Largest input density a convolution scatters instead of lowering
+    private final boolean _linear;     // Whether a fully connected op skips the ReLU
+
+    private InferenceOp(int kind, double[] weights, int[] rowStarts, int[] columns, int size, int stepSize, int padding, int windowSize, int poolStep,
+                        int inLength, int inRows, int inColumns,
+                        int outLength, int outRows, int outColumns, int outputElements, int scratchLength,
+                        double sparseThreshold, boolean linear) {
+        _kind = kind;
+        _weights = weights;
+        _rowStarts = rowStarts;
+        _columns = columns;
+        _size = size;
+        _stepSize = stepSize;
+        _padding = padding;
+        _windowSize = windowSize;
+        _poolStep = poolStep;
+        _inLength = inLength;
+        _inRows = inRows;
+        _inColumns = inColumns;
+        _outLength = outLength;
+        _outRows = outRows;
+        _outColumns = outColumns;
+        _inputElements = kind == FULLY_CONNECTED || kind == SPARSE_FULLY_CONNECTED ? inLength : inLength * inRows * inColumns;
+        _outputElements = outputElements;
+        _scratchLength = scratchLength;
+        _sparseThreshold = sparseThreshold;
+        _linear = linear;
+    }
+
+    /**
+     * @param filters Copy of the filters, shape (numFilters, inLength, filterSize, filterSize).
+     * @param sparseThreshold Largest input density handled by {@link ConvolutionLayer#scatter}.
+     */
+    static InferenceOp convolution(double[] filters, int filterSize, int stepSize, int padding, int inLength, int inRows, int inColumns,
+                                   double sparseThreshold) {
+        int numFilters = filters.length / (inLength * filterSize * filterSize);
+        int outRows = ConvolutionLayer.outputExtent(inRows, filterSize, stepSize, padding);
+        int outColumns = ConvolutionLayer.outputExtent(inColumns, filterSize, stepSize, padding);
+        return new InferenceOp(CONVOLUTION, filters, null, null, filterSize, stepSize, padding, 0, 0, inLength, inRows, inColumns,
+                numFilters, outRows, outColumns, numFilters * outRows * outColumns,
+                inLength * filterSize * filterSize * outRows * outColumns, sparseThreshold, false);
+    }
+
+    static InferenceOp maxPool(int windowSize, int stepSize, int inLength, int inRows, int inColumns) {
+        int outRows = (inRows - windowSize) / stepSize + 1;
+        int outColumns = (inColumns - windowSize) / stepSize + 1;
+        return new InferenceOp(MAX_POOL, null, null, null, windowSize, stepSize, 0, 0, 0, inLength, inRows, inColumns,
+                inLength, outRows, outColumns, inLength * outRows * outColumns, 0, 0, false);
+    }
+
+    static InferenceOp averagePool(int windowRows, int windowColumns, int stepSize, int inLength, int inRows, int inColumns) {
+        int outRows = (inRows - windowRows) / stepSize + 1;
+        int outColumns = (inColumns - windowColumns) / stepSize + 1;
+        return new InferenceOp(AVERAGE_POOL, null, null, null, windowRows, stepSize, 0, windowColumns, 0, inLength, inRows, inColumns,
+                inLength, outRows, outColumns, inLength * outRows * outColumns, 0, 0, false);
+    }
+
+    /**
+     * @param weights Copy of the weights, shape (inLength, outLength).
+     * @param linear Whether to output the weighted sums without the ReLU.
+     */
+    static InferenceOp fullyConnected(double[] weights, int inLength, int outLength, boolean linear) {
+        return new InferenceOp(FULLY_CONNECTED, weights, null, null, 0, 1, 0, 0, 0, inLength, 1, 1,
+                outLength, 1, 1, outLength, 0, 0, linear);
+    }
+
+    static InferenceOp softmax(int inLength) {
+        return new InferenceOp(SOFTMAX, null, null, null, 0, 1, 0, 0, 0, inLength, 1, 1,
+                inLength, 1, 1, inLength, 0, 0, false);
+    }
+
+    /**
+     * @param rowStarts Copy of a pruned layer's row starts, see {@link FullyConnectedLayer}.
+     * @param columns Copy of the output neuron of each kept weight.
+     * @param weights Copy of the kept weights.
+     * @param linear Whether to output the weighted sums without the ReLU.
+     */
+    static InferenceOp sparseFullyConnected(int[] rowStarts, int[] columns, double[] weights, int inLength, int outLength, boolean linear) {
+        return new InferenceOp(SPARSE_FULLY_CONNECTED, weights, rowStarts, columns, 0, 1, 0, 0, 0, inLength, 1, 1,
+                outLength, 1, 1, outLength, 0, 0, linear);
+    }
+
+    /**
+     * @param filters Copy of the filters, shape (numFilters, inLength, filterSize, filterSize).
+     * @param sparseThreshold Largest input density that {@link ConvolutionPoolLayer#convolvePool} scatters.
+     */
+    static InferenceOp convolutionPool(double[] filters, int filterSize, int stepSize, int padding, int windowSize, int poolStep,
+                                       int inLength, int inRows, int inColumns, double sparseThreshold) {
+        int numFilters = filters.length / (inLength * filterSize * filterSize);
+        int convRows = ConvolutionLayer.outputExtent(inRows, filterSize, stepSize, padding);
+        int convColumns = ConvolutionLayer.outputExtent(inColumns, filterSize, stepSize, padding);
+        int outRows = (convRows - windowSize) / poolStep + 1;
+        int outColumns = (convColumns - windowSize) / poolStep + 1;
+        return new InferenceOp(CONVOLUTION_POOL, filters, null, null, filterSize, stepSize, padding, windowSize, poolStep, inLength, inRows, inColumns,
+                numFilters, outRows, outColumns, numFilters * outRows * outColumns,
+                ConvolutionPoolLayer.tileLength(numFilters, convRows, convColumns, windowSize, poolStep), sparseThreshold, false);
+    }
+
+    /**
+     * @param weights Copy of the weight bank: depthwise filters (inLength, filterSize, filterSize), then pointwise filters (numFilters, inLength).
+     */
+    static InferenceOp depthwiseSeparable(double[] weights, int filterSize, int stepSize, int numFilters,
+                                          int inLength, int inRows, int inColumns) {
+        int outRows = (inRows - filterSize) / stepSize + 1;
+        int outColumns = (inColumns - filterSize) / stepSize + 1;
+        return new InferenceOp(DEPTHWISE_SEPARABLE, weights, null, null, filterSize, stepSize, 0, 0, 0, inLength, inRows, inColumns,
+                numFilters, outRows, outColumns, numFilters * outRows * outColumns,
+                inLength * outRows * outColumns, 0, false);
+    }
+
+    /**
+     * Runs one sample through this op.
+     *
+     * @param input The input, {@link #getInputElements()} values from index 0.
+     * @param output Receives {@link #getOutputElements()} values from index 0.
+     * @param scratch Working space with at least {@link #getScratchLength()} values.
+     */
+    public void run(double[] input, double[] output, double[] scratch) {
+        switch (_kind) {
+            case CONVOLUTION -> convolve(input, output, scratch);
+            case MAX_POOL -> pool(input, output);
+            case CONVOLUTION_POOL -> ConvolutionPoolLayer.convolvePool(input, 0, _inLength, _inRows, _inColumns,
+                    _weights, _size, _stepSize, _padding, _windowSize, _poolStep, _sparseThreshold, scratch, output, 0, null);
+            case DEPTHWISE_SEPARABLE -> separate(input, output, scratch);
+            case AVERAGE_POOL -> AveragePoolLayer.pool(input, 0, _inLength, _inRows, _inColumns, _size, _windowSize, _stepSize, output, 0);
+            case SPARSE_FULLY_CONNECTED -> sparselyConnect(input, output);
+            case SOFTMAX -> SoftmaxCrossEntropyLayer.softmax(input, 0, _inLength, output, 0);
+            default -> fullyConnect(input, output);
+        }
+    }
+
+    /**
+     * Lowers every input channel into {@code scratch} and applies the filters to it with one gemm,
+     * the same way {@link ConvolutionLayer} does. Mostly-zero inputs are scattered instead.
+     */
+    private void convolve(double[] input, double[] output, double[] scratch) {
+        if (ConvolutionLayer.isSparse(input, 0, _inputElements, _sparseThreshold)) {
+            ConvolutionLayer.scatter(input, 0, _inLength, _inRows, _inColumns, _weights, _size, _stepSize, _padding, output, 0);
+            return;
+        }
+
+        int filterVolume = _inLength * _size * _size;
+        int outputArea = _outRows * _outColumns;
+        int inputArea = _inRows * _inColumns;
+
+        for (int m = 0; m < _inLength; m++) {
+            ConvolutionLayer.im2col(input, m * inputArea, _inRows, _inColumns, _size, _stepSize, _padding, scratch, m * _size * _size * outputArea);
+        }
+
+        gemm(false, false, _outLength, outputArea, filterVolume, 1.0,
+                _weights, 0, filterVolume, scratch, 0, outputArea,
+                0.0, output, 0, outputArea);
+    }
+
+    /**
+     * Runs the depthwise step into {@code scratch}, then the pointwise step as one gemm.
+     */
+    private void separate(double[] input, double[] output, double[] scratch) {
+        int outputArea = _outRows * _outColumns;
+        DepthwiseSeparableConvolutionLayer.depthwise(input, 0, _inLength, _inRows, _inColumns, _weights, _size, _stepSize, scratch);
+        gemm(false, false, _outLength, outputArea, _inLength, 1.0,
+                _weights, _inLength * _size * _size, _inLength, scratch, 0, outputArea,
+                0.0, output, 0, outputArea);
+    }
+
+    /**
+     * Visits the same windows as {@link MaxPoolLayer}, so cells it skips keep the zero they were allocated with.
+     */
+    private void pool(double[] input, double[] output) {
+        int inputArea = _inRows * _inColumns;
+        int outputArea = _outRows * _outColumns;
+
+        for (int l = 0; l < _inLength; l++) {
+            for (int r = 0; r < _outRows; r += _stepSize) {
+                for (int c = 0; c < _outColumns; c += _stepSize) {
+                    double max = Double.NEGATIVE_INFINITY;
+
+                    for (int x = 0; x < _size && r + x < _inRows; x++) {
+                        for (int y = 0; y < _size && c + y < _inColumns; y++) {
+                            double value = input[l * inputArea + (r + x) * _inColumns + c + y];
+                            if (max < value) {
+                                max = value;
+                            }
+                        }
+                    }
+
+                    output[l * outputArea + r * _outColumns + c] = max;
+                }
+            }
+        }
+    }
+
+    private void fullyConnect(double[] input, double[] output) {
+        gemv(true, _inLength, _outLength, 1.0, _weights, 0, _outLength, input, 0, 0.0, output, 0);
+
+        if (!_linear) {
+            for (int j = 0; j < _outLength; j++) {
+                output[j] = output[j] > 0 ? output[j] : 0;  // Apply ReLU activation function
+            }
+        }
+    }
+
+    /**
+     * Visits only the kept weights of a pruned layer, skipping inputs that are zero.
+     */
+    private void sparselyConnect(double[] input, double[] output) {
+        csrmv(true, _inLength, _outLength, 1.0, _rowStarts, _columns, _weights, input, 0, 0.0, output, 0);
+
+        if (!_linear) {
+            for (int j = 0; j < _outLength; j++) {
+                output[j] = output[j] > 0 ? output[j] : 0;  // Apply ReLU activation function
+            }
+        }
+    }
+
+    public int getInputElements() {
+        return _inputElements;
+    }
+
+    public int getOutputElements() {
+        return _outputElements;
+    }
+
+    /**
+     * @return Number of values the op needs in its scratch space.
+     */
+    public int getScratchLength() {
+        return _scratchLength;
+    }
+}
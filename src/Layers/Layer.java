@@ -1,9 +1,9 @@
 package Layers;
 
+import data.Tensor;
+
 import java.io.Serial;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
 
 public abstract class Layer implements Serializable {
     @Serial
@@ -11,6 +11,10 @@ public abstract class Layer implements Serializable {
     // Pointers to the next and previous layers in the network
     protected Layer _nextLayer;
     protected Layer _previousLayer;
+    private Precision _precision;  // Precision of the weights and kernels; null in models saved before float32 support
+    private Optimizer _optimizer;  // Turns gradients into weight updates; null means plain SGD
+
+    private transient LayerContext _context;  // Working state for the chained getOutput/backPropagation calls
 
     /**
      * Gets the next layer in the network.
@@ -48,79 +52,181 @@ public abstract class Layer implements Serializable {
         this._previousLayer = _previousLayer;
     }
 
-    // Abstract methods that must be implemented by subclasses
-    public abstract double[] getOutput(List<double[][]> input);
-    public abstract double[] getOutput(double[] input);
+    /**
+     * Runs the input through this layer and every layer after it, keeping the state needed
+     * by {@link #backPropagation(Tensor)} in this layer's own context. Not safe for concurrent use.
+     *
+     * @param input The input to this layer.
+     * @return The output of the last layer in the network.
+     */
+    public Tensor getOutput(Tensor input) {
+        Tensor output = forward(input, defaultContext());
+        return _nextLayer == null ? output : _nextLayer.getOutput(output);
+    }
+
+    /**
+     * Backpropagates through this layer and every layer before it, updating each layer's weights
+     * immediately. Uses the state stored by the last {@link #getOutput(Tensor)} call.
+     *
+     * @param dLdO Gradient of the loss w.r.t. this layer's output.
+     */
+    public void backPropagation(Tensor dLdO) {
+        LayerContext context = defaultContext();
+        Tensor dLdX = backward(dLdO, context);
+        applyGradients(context, 1.0);
 
-    public abstract void backPropagation(double[] dLdO);
-    public abstract void backPropagation(List<double[][]> dLdO);
+        if (_previousLayer != null) {
+            _previousLayer.backPropagation(dLdX);
+        }
+    }
 
-    public abstract int getOutputLength();
-    public abstract int getOutputRows();
-    public abstract int getOutputColumns();
-    public abstract int getOutputElements();
+    /**
+     * Applies the weight gradients accumulated in the context and clears them.
+     * Layers without weights have nothing to update.
+     *
+     * @param context The context holding the accumulated gradients.
+     * @param scale Factor applied to the gradients on top of the learning rate, e.g. 1 / batch size.
+     */
+    public void applyGradients(LayerContext context, double scale) {
+    }
 
     /**
-     * Converts a list of matrices into a single vector.
+     * @return The optimizer that applies this layer's gradients; {@link SgdOptimizer} unless another was set.
+     */
+    public Optimizer getOptimizer() {
+        if (_optimizer == null) {
+            _optimizer = new SgdOptimizer();
+        }
+        return _optimizer;
+    }
+
+    /**
+     * Sets how this layer's gradients become weight updates. The layer keeps a copy with empty
+     * state, so one optimizer can be passed to every layer of a network.
      *
-     * @param input List of matrices to be converted.
-     * @return A single vector containing all the elements of the input matrices.
+     * @param optimizer The optimizer to copy.
      */
-    public double[] matrixToVector(List<double[][]> input) {
-        int length = input.size();
-        int rows = input.get(0).length;
-        int columns = input.get(0)[0].length;
+    public void setOptimizer(Optimizer optimizer) {
+        _optimizer = optimizer.copy();
+    }
 
-        double[] vector = new double[length * rows * columns];
+    /**
+     * @return The precision this layer stores its weights in and computes with.
+     */
+    public Precision getPrecision() {
+        return _precision == null ? Precision.DOUBLE : _precision;
+    }
 
-        try {
-            int i = 0;
-            for (int l = 0; l < length; l++) {
-                for (int r = 0; r < rows; r++) {
-                    for (int c = 0; c < columns; c++) {
-                        vector[i] = input.get(l)[r][c];
-                        i++;
-                    }
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Error converting matrix to vector: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * Converts the layer's weights to another precision. Contexts created before the
+     * conversion hold buffers for the old precision and must not be used afterwards.
+     *
+     * @param precision The precision to convert to.
+     */
+    public void convertTo(Precision precision) {
+        if (getPrecision() != precision) {
+            convertWeights(precision);
+            _precision = precision;
+            resetDefaultContext();
         }
+    }
 
-        return vector;
+    /**
+     * Replaces the weights with copies in the given precision. Layers without weights have nothing to convert.
+     *
+     * @param precision The precision to convert to.
+     */
+    protected void convertWeights(Precision precision) {
     }
 
     /**
-     * Converts a vector into a list of matrices.
+     * Creates an int8 copy of this layer for inference.
      *
-     * @param input The vector to be converted.
-     * @param length Number of matrices in the output list.
-     * @param rows Number of rows in each matrix.
-     * @param columns Number of columns in each matrix.
-     * @return A list of matrices reconstructed from the input vector.
+     * @param inputScale Real value of one int8 step of this layer's input.
+     * @param outputScale Real value of one int8 step of this layer's output.
+     * @return The quantized layer.
+     * @throws UnsupportedOperationException If the layer has no int8 form.
      */
-    List<double[][]> vectorToMatrix(double[] input, int length, int rows, int columns) {
-        List<double[][]> out = new ArrayList<>();
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be quantized");
+    }
 
-        try {
-            int i = 0;
-            for (int l = 0; l < length; l++) {
-                double[][] matrix = new double[rows][columns];
+    /**
+     * Creates an immutable inference step from this layer. The weights are copied, so later
+     * training does not change the step.
+     *
+     * @return The compiled step.
+     * @throws UnsupportedOperationException If the layer has no compiled form.
+     */
+    public InferenceOp compile() {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be compiled");
+    }
 
-                for (int r = 0; r < rows; r++) {
-                    for (int c = 0; c < columns; c++) {
-                        matrix[r][c] = input[i];
-                        i++;
-                    }
-                }
-                out.add(matrix);
-            }
-        } catch (Exception e) {
-            System.err.println("Error converting vector to matrix: " + e.getMessage());
-            e.printStackTrace();
+    /**
+     * @return The context used by the chained {@link #getOutput(Tensor)} and {@link #backPropagation(Tensor)} calls.
+     */
+    protected LayerContext defaultContext() {
+        if (_context == null) {
+            _context = createContext();
         }
+        return _context;
+    }
+
+    /**
+     * Discards the context of the chained calls, so the next one is created for the layer's
+     * current weights. Call it whenever the shape or precision of the weights changes.
+     */
+    protected void resetDefaultContext() {
+        _context = null;
+    }
+
+    // Abstract methods that must be implemented by subclasses
+    public abstract LayerContext createContext();
+
+    /**
+     * Runs one sample through this layer only. Weights are read but never written, and all
+     * per-call state goes into the context, so concurrent calls with separate contexts are safe.
+     *
+     * @param input The input to this layer.
+     * @param context Working state created by {@link #createContext()}.
+     * @return This layer's output, held in the context's output buffer until the next call.
+     */
+    public abstract Tensor forward(Tensor input, LayerContext context);
+
+    /**
+     * Backpropagates one sample through this layer only, using the state the matching forward
+     * pass left in the context. Weight gradients are added to the context; the weights are not changed.
+     *
+     * @param dLdO Gradient of the loss w.r.t. this layer's output.
+     * @param context The context used for the forward pass.
+     * @return Gradient w.r.t. this layer's input, held in the context until the next call.
+     */
+    public abstract Tensor backward(Tensor dLdO, LayerContext context);
+
+    /**
+     * Runs a stack of samples through this layer only, without recording anything for backpropagation.
+     *
+     * @param batch Samples stacked along the first axis.
+     * @return This layer's outputs, stacked the same way.
+     */
+    public abstract Tensor forwardBatch(Tensor batch);
 
-        return out;
+    public abstract int getOutputLength();
+    public abstract int getOutputRows();
+    public abstract int getOutputColumns();
+    public abstract int getOutputElements();
+
+    /**
+     * Checks that a tensor received from a neighbouring layer holds the expected number of
+     * contiguous elements. The per-sample passes read such tensors straight through their backing
+     * array and offset, so any shape with the right element count is accepted without creating a view.
+     *
+     * @param tensor The tensor received from a neighbouring layer.
+     * @param elements The number of elements this layer expects.
+     */
+    protected static void checkElements(Tensor tensor, int elements) {
+        if (tensor.size() != elements || !tensor.isContiguous()) {
+            throw new IllegalArgumentException("Expected " + elements + " contiguous elements but got " + tensor);
+        }
     }
 }
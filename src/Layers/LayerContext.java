@@ -0,0 +1,59 @@
+package Layers;
+
+import data.Tensor;
+
+/**
+ * Working state for one layer on one thread.
+ * <p>
+ * A forward pass writes its output into the context's buffer and remembers whatever the
+ * backward pass will need, so the layer itself only holds weights and configuration. The backward
+ * pass adds weight gradients into the context instead of changing the weights, and
+ * {@link Layer#applyGradients(LayerContext, double)} later applies them in one update. Several
+ * threads can therefore run the same layer at once as long as each uses its own context.
+ */
+public class LayerContext {
+    Tensor input;           // Last input passed to the forward pass
+    Tensor output;          // Output buffer, allocated once and reused by every forward pass
+    Tensor inputGradient;   // Gradient w.r.t. the input, written by every backward pass
+    Tensor weightGradient;  // Weight gradients summed over backward passes since the last update; null without weights
+    float[] floatWeightGradient;  // Used instead of weightGradient by layers running in float32 mode
+
+    /**
+     * @return The output written by the most recent forward pass.
+     */
+    public Tensor getOutput() {
+        return output;
+    }
+
+    /**
+     * @return The accumulated weight gradients, or null if the layer has no weights or runs in float32 mode.
+     */
+    public Tensor getWeightGradient() {
+        return weightGradient;
+    }
+
+    /**
+     * Adds this context's accumulated weight gradients to another context of the same layer and clears them here.
+     *
+     * @param target The context receiving the gradients.
+     */
+    public void mergeGradientsInto(LayerContext target) {
+        if (weightGradient != null) {
+            double[] from = weightGradient.getData();
+            double[] to = target.weightGradient.getData();
+            for (int k = 0; k < from.length; k++) {
+                to[k] += from[k];
+                from[k] = 0;
+            }
+        }
+
+        if (floatWeightGradient != null) {
+            float[] from = floatWeightGradient;
+            float[] to = target.floatWeightGradient;
+            for (int k = 0; k < from.length; k++) {
+                to[k] += from[k];
+                from[k] = 0;
+            }
+        }
+    }
+}
@@ -1,8 +1,8 @@
 package Layers;
 
+import data.Tensor;
+
 import java.io.Serial;
-import java.util.ArrayList;
-import java.util.List;
 
 public class MaxPoolLayer extends Layer {
     @Serial
@@ -14,8 +14,6 @@ public class MaxPoolLayer extends Layer {
     private int _inRows;      // Number of input rows
     private int _inColumns;   // Number of input columns
 
-    List<int[][]> _lastMaxRow;    // Stores the row indices of max values during pooling
-    List<int[][]> _lastMaxColumn; // Stores the column indices of max values during pooling
 
     /**
      * Constructor to initialize the MaxPoolLayer with specified parameters.
@@ -37,115 +35,179 @@ public class MaxPoolLayer extends Layer {
     /**
      * Performs the forward pass of max pooling on the input data.
      *
-     * @param input List of input matrices (one for each channel).
-     * @return List of output matrices after max pooling.
+     * @param input Input volume of shape (channels, rows, columns).
+     * @return Output volume after max pooling.
      */
-    public List<double[][]> maxPoolForwardPass(List<double[][]> input) {
-        List<double[][]> output = new ArrayList<>();
-        _lastMaxRow = new ArrayList<>();
-        _lastMaxColumn = new ArrayList<>();
+    public Tensor maxPoolForwardPass(Tensor input) {
+        return forward(input, defaultContext());
+    }
 
-            for (int l = 0; l < input.size(); l++) {
-                output.add(pool(input.get(l)));  // Apply pooling to each channel
-            }
-            return output;
+    @Override
+    public LayerContext createContext() {
+        Context context = new Context();
+        context.output = new Tensor(_inLength, getOutputRows(), getOutputColumns());
+        context.inputGradient = new Tensor(_inLength, _inRows, _inColumns);
+        context._lastMaxRow = new int[getOutputElements()];
+        context._lastMaxColumn = new int[getOutputElements()];
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        Context poolContext = (Context) context;
+        checkElements(input, _inLength * _inRows * _inColumns);
+        poolContext.input = input;
+
+        // Apply pooling to each channel
+        poolChannels(input.getData(), input.getOffset(), poolContext.output.getData(), poolContext.output.getOffset(),
+                poolContext._lastMaxRow, poolContext._lastMaxColumn);
+        return poolContext.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        checkElements(batch, batchSize * _inLength * _inRows * _inColumns);
+        Tensor output = new Tensor(batchSize, _inLength, getOutputRows(), getOutputColumns());
+        int inputVolume = _inLength * _inRows * _inColumns;
+
+        for (int n = 0; n < batchSize; n++) {
+            poolChannels(batch.getData(), batch.getOffset() + n * inputVolume, output.getData(), n * getOutputElements(), null, null);
+        }
+
+        return output;
     }
 
     /**
-     * Applies max pooling to a single input matrix.
+     * Applies max pooling to every channel of one sample.
      *
-     * @param input The input matrix to apply pooling on.
-     * @return The output matrix after pooling.
+     * @param input Backing array of the input volume.
+     * @param inputOffset Index of the first input element.
+     * @param output Backing array the pooled values are written to.
+     * @param outputOffset Index of the first output element.
+     * @param maxRow Receives the row of each max value, or null when backpropagation will not follow.
+     * @param maxColumn Receives the column of each max value, or null when backpropagation will not follow.
      */
-    public double[][] pool(double[][] input) {
-        double[][] output = new double[getOutputRows()][getOutputColumns()];
+    private void poolChannels(double[] input, int inputOffset, double[] output, int outputOffset, int[] maxRow, int[] maxColumn) {
+        int inputArea = _inRows * _inColumns;
+        int outputArea = getOutputRows() * getOutputColumns();
+
+        for (int l = 0; l < _inLength; l++) {
+            pool(input, inputOffset + l * inputArea, output, outputOffset + l * outputArea, maxRow, maxColumn, l * outputArea);
+        }
+    }
 
-        int[][] maxRow = new int[getOutputRows()][getOutputColumns()];
-        int[][] maxColumn = new int[getOutputRows()][getOutputColumns()];
+    /**
+     * Applies max pooling to a single input matrix.
+     *
+     * @param input Backing array of the input matrix.
+     * @param inputOffset Index of the matrix's first element.
+     * @param output Backing array the pooled values are written to.
+     * @param outputOffset Index of the first pooled value.
+     * @param maxRow Receives the row of each max value, or null when backpropagation will not follow.
+     * @param maxColumn Receives the column of each max value, or null when backpropagation will not follow.
+     * @param maxOffset Index in the argmax arrays of this channel's first output cell.
+     */
+    private void pool(double[] input, int inputOffset, double[] output, int outputOffset, int[] maxRow, int[] maxColumn, int maxOffset) {
+        int outRows = getOutputRows();
+        int outColumns = getOutputColumns();
 
         try {
-            for (int r = 0; r < getOutputRows(); r += _stepSize) {
-                for (int c = 0; c < getOutputColumns(); c += _stepSize) {
+            for (int r = 0; r < outRows; r += _stepSize) {
+                for (int c = 0; c < outColumns; c += _stepSize) {
+                    int cell = r * outColumns + c;
 
                     double max = Double.NEGATIVE_INFINITY;  // Initialize max with the smallest possible value
-                    maxRow[r][c] = -1;
-                    maxColumn[r][c] = -1;
+                    int maxI = -1;
+                    int maxJ = -1;
 
                     for (int x = 0; x < _windowSize; x++) {
                         for (int y = 0; y < _windowSize; y++) {
-                            if (r + x < input.length && c + y < input[0].length && max < input[r + x][c + y]) {
-                                max = input[r + x][c + y];
-                                maxRow[r][c] = r + x;
-                                maxColumn[r][c] = c + y;
+                            if (r + x < _inRows && c + y < _inColumns) {
+                                double value = input[inputOffset + (r + x) * _inColumns + c + y];
+                                if (max < value) {
+                                    max = value;
+                                    maxI = r + x;
+                                    maxJ = c + y;
+                                }
                             }
                         }
                     }
 
-                    output[r][c] = max;
+                    if (maxRow != null) {
+                        maxRow[maxOffset + cell] = maxI;
+                        maxColumn[maxOffset + cell] = maxJ;
+                    }
+
+                    output[outputOffset + cell] = max;
                 }
             }
         } catch (Exception e) {
             System.err.println("Error during pooling: " + e.getMessage());
             e.printStackTrace();
         }
-
-        _lastMaxRow.add(maxRow);
-        _lastMaxColumn.add(maxColumn);
-
-        return output;
     }
 
     @Override
-    public double[] getOutput(List<double[][]> input) {
-            List<double[][]> outputPool = maxPoolForwardPass(input);
-            return _nextLayer.getOutput(outputPool);
-    }
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Context poolContext = (Context) context;
+        Tensor dXdL = poolContext.inputGradient;
 
-    @Override
-    public double[] getOutput(double[] input) {
-            List<double[][]> matrixList = vectorToMatrix(input, _inLength, _inRows, _inColumns);
-            return getOutput(matrixList);
+        try {
+            checkElements(dLdO, getOutputElements());
+            double[] array = dLdO.getData();
+            int arrayOffset = dLdO.getOffset();
+            double[] error = dXdL.getData();
+            int inputArea = _inRows * _inColumns;
+            int outputArea = getOutputRows() * getOutputColumns();
+            dXdL.fill(0);
+
+            for (int l = 0; l < _inLength; l++) {
+                for (int cell = l * outputArea; cell < (l + 1) * outputArea; cell++) {
+                    int max_i = poolContext._lastMaxRow[cell];
+                    int max_j = poolContext._lastMaxColumn[cell];
+
+                    if (max_i != -1) {
+                        error[l * inputArea + max_i * _inColumns + max_j] += array[arrayOffset + cell];
+                    }
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error during backpropagation: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return dXdL;
     }
 
     @Override
-    public void backPropagation(double[] dLdO) {
-            List<double[][]> matrixList = vectorToMatrix(dLdO, getOutputLength(), getOutputRows(), getOutputColumns());
-            backPropagation(matrixList);
-
+    public InferenceOp compile() {
+        return InferenceOp.maxPool(_windowSize, _stepSize, _inLength, _inRows, _inColumns);
     }
 
     @Override
-    public void backPropagation(List<double[][]> dLdO) {
-        try {
-            List<double[][]> dXdL = new ArrayList<>();
-            int l = 0;
-
-            for (double[][] array : dLdO) {
-                double[][] error = new double[_inRows][_inColumns];
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        return new QuantizedMaxPoolLayer(_stepSize, _windowSize, _inLength, _inRows, _inColumns, inputScale, outputScale);
+    }
 
-                for (int r = 0; r < getOutputRows(); r++) {
-                    for (int c = 0; c < getOutputColumns(); c++) {
+    int getStepSize() {
+        return _stepSize;
+    }
 
-                        int max_i = _lastMaxRow.get(l)[r][c];
-                        int max_j = _lastMaxColumn.get(l)[r][c];
+    int getWindowSize() {
+        return _windowSize;
+    }
 
-                        if (max_i != -1) {
-                            error[max_i][max_j] += array[r][c];
-                        }
-                    }
-                }
+    int getInputLength() {
+        return _inLength;
+    }
 
-                dXdL.add(error);
-                l++;
-            }
+    int getInputRows() {
+        return _inRows;
+    }
 
-            if (_previousLayer != null) {
-                _previousLayer.backPropagation(dXdL);
-            }
-        } catch (Exception e) {
-            System.err.println("Error during backpropagation: " + e.getMessage());
-            e.printStackTrace();
-        }
+    int getInputColumns() {
+        return _inColumns;
     }
 
     @Override
@@ -167,4 +229,12 @@ public class MaxPoolLayer extends Layer {
     public int getOutputElements() {
             return _inLength * getOutputRows() * getOutputColumns();
     }
+
+    /**
+     * Pooling state for one thread: the position of each output cell's max value.
+     */
+    static final class Context extends LayerContext {
+        int[] _lastMaxRow;    // Row index of the max value for each output cell, channel-major
+        int[] _lastMaxColumn; // Column index of the max value for each output cell, channel-major
+    }
 }
@@ -0,0 +1,72 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Gradient descent with momentum. Each weight keeps a velocity {@code v = momentum * v + g} and
+ * moves by {@code learningRate * v}, so steps along a consistent direction build up while
+ * oscillating components cancel out. In Nesterov form the weight moves by
+ * {@code learningRate * (g + momentum * v)}, which looks one step ahead along the velocity.
+ * <p>
+ * Every weight moves on every update, even with a zero gradient, until its velocity decays.
+ * The velocity is not safe for concurrent updates, so {@code HogwildTrainer} rejects this optimizer.
+ */
+public final class MomentumOptimizer implements Optimizer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final double _momentum;  // Fraction of the velocity kept from one update to the next
+    private final boolean _nesterov;  // Whether to apply Nesterov's look-ahead correction
+    private transient double[] _velocity;  // Per-weight velocity, created on the first update
+
+    /**
+     * @param momentum Fraction of the velocity kept from one update to the next, usually 0.9.
+     * @param nesterov Whether to use Nesterov momentum.
+     */
+    public MomentumOptimizer(double momentum, boolean nesterov) {
+        if (!(momentum >= 0 && momentum < 1)) {
+            throw new IllegalArgumentException("Momentum must be in [0, 1), was " + momentum);
+        }
+        _momentum = momentum;
+        _nesterov = nesterov;
+    }
+
+    @Override
+    public void update(double[] weights, double[] gradient, double learningRate, double scale) {
+        double[] velocity = velocity(weights.length);
+
+        for (int k = 0; k < weights.length; k++) {
+            double g = gradient[k] * scale;
+            velocity[k] = _momentum * velocity[k] + g;
+            weights[k] -= learningRate * (_nesterov ? g + _momentum * velocity[k] : velocity[k]);
+            gradient[k] = 0;
+        }
+    }
+
+    @Override
+    public void update(float[] weights, float[] gradient, double learningRate, double scale) {
+        double[] velocity = velocity(weights.length);
+
+        for (int k = 0; k < weights.length; k++) {
+            double g = gradient[k] * scale;
+            velocity[k] = _momentum * velocity[k] + g;
+            weights[k] -= (float) (learningRate * (_nesterov ? g + _momentum * velocity[k] : velocity[k]));
+            gradient[k] = 0;
+        }
+    }
+
+    /**
+     * @return The velocity buffer, recreated at zero if the layer's weight count has changed, e.g. after pruning.
+     */
+    private double[] velocity(int length) {
+        if (_velocity == null || _velocity.length != length) {
+            _velocity = new double[length];
+        }
+        return _velocity;
+    }
+
+    @Override
+    public Optimizer copy() {
+        return new MomentumOptimizer(_momentum, _nesterov);
+    }
+}
@@ -0,0 +1,35 @@
+package Layers;
+
+import java.io.Serializable;
+
+/**
+ * Turns a layer's accumulated weight gradients into a weight update.
+ * <p>
+ * Each weighted layer owns its own optimizer, so state such as momentum is kept per weight and
+ * never shared between layers; {@link Layer#setOptimizer} copies the optimizer it is given. The
+ * learning rate stays with the layer and is passed to every update. Optimizer state is not saved
+ * with a model: a loaded model resumes training with fresh state, and saved files stay the size
+ * of their weights.
+ */
+public interface Optimizer extends Serializable {
+
+    /**
+     * Updates the weights from their gradients and clears the gradients.
+     *
+     * @param weights The weights, updated in place.
+     * @param gradient Summed gradient of each weight; zeroed on return.
+     * @param learningRate The layer's learning rate.
+     * @param scale Factor applied to the gradients, e.g. 1 / batch size.
+     */
+    void update(double[] weights, double[] gradient, double learningRate, double scale);
+
+    /**
+     * Float32 form of {@link #update(double[], double[], double, double)}.
+     */
+    void update(float[] weights, float[] gradient, double learningRate, double scale);
+
+    /**
+     * @return An optimizer with the same settings and empty state.
+     */
+    Optimizer copy();
+}
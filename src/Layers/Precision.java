@@ -0,0 +1,18 @@
+package Layers;
+
+/**
+ * Numeric precision a layer stores its weights in and runs its kernels with.
+ * <p>
+ * {@link #FLOAT32} halves weight and gradient memory and lets each SIMD instruction process twice
+ * as many values. Activations still cross layer boundaries as double tensors: a weighted layer
+ * narrows its input to float once, does every multiply-accumulate in float and widens its output.
+ * Pooling only selects values, so it gives identical results in either precision.
+ * <p>
+ * Float32 outputs differ from double outputs of the same weights by rounding only. On the MNIST
+ * models built by {@code network.Main} the per-class scores agree to within 1e-4 relative to the
+ * largest score, so predicted labels change only for images whose top two scores are that close.
+ */
+public enum Precision {
+    DOUBLE,
+    FLOAT32
+}
@@ -0,0 +1,75 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Int8 form of {@link AveragePoolLayer}. Each window is summed in an int accumulator and the
+ * division by the window size is folded into the rescaling multiplier.
+ */
+public class QuantizedAveragePoolLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int _stepSize;
+    private final int _windowRows;
+    private final int _windowColumns;
+    private final int _inLength;
+    private final int _inRows;
+    private final int _inColumns;
+    private final int _outRows;
+    private final int _outColumns;
+
+    QuantizedAveragePoolLayer(int stepSize, int windowRows, int windowColumns, int inLength, int inRows, int inColumns,
+                              float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _stepSize = stepSize;
+        _windowRows = windowRows;
+        _windowColumns = windowColumns;
+        _inLength = inLength;
+        _inRows = inRows;
+        _inColumns = inColumns;
+        _outRows = (inRows - windowRows) / stepSize + 1;
+        _outColumns = (inColumns - windowColumns) / stepSize + 1;
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        int index = 0;
+
+        for (int l = 0; l < _inLength; l++) {
+            int channelStart = l * _inRows * _inColumns;
+
+            for (int i = 0; i < _outRows; i++) {
+                for (int j = 0; j < _outColumns; j++) {
+                    int sum = 0;
+
+                    for (int x = 0; x < _windowRows; x++) {
+                        int rowStart = channelStart + (i * _stepSize + x) * _inColumns + j * _stepSize;
+                        for (int y = 0; y < _windowColumns; y++) {
+                            sum += input[rowStart + y];
+                        }
+                    }
+
+                    accumulators[index++] = sum;
+                }
+            }
+        }
+
+        write(accumulators, index, _inputScale / (_windowRows * _windowColumns), 0, output, scores);
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _inLength * _outRows * _outColumns;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return 0;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,146 @@
+package Layers;
+
+import java.io.Serial;
+import java.util.Arrays;
+
+/**
+ * Int8 form of {@link ConvolutionLayer}, with one weight scale per filter.
+ */
+public class QuantizedConvolutionLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] _filters;        // Filters, shape (numFilters, inLength, filterSize, filterSize)
+    private final float[] _filterScales;  // Real value of one step of each filter
+    private final int _numFilters;
+    private final int _filterSize;
+    private final int _stepSize;
+    private final int _padding;  // Zero rows and columns around the input
+    private final int _inLength;
+    private final int _inRows;
+    private final int _inColumns;
+    private final int _outRows;
+    private final int _outColumns;
+
+    QuantizedConvolutionLayer(byte[] filters, float[] filterScales, int filterSize, int stepSize, int padding,
+                              int inLength, int inRows, int inColumns, float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _filters = filters;
+        _filterScales = filterScales;
+        _numFilters = filterScales.length;
+        _filterSize = filterSize;
+        _stepSize = stepSize;
+        _padding = padding;
+        _inLength = inLength;
+        _inRows = inRows;
+        _inColumns = inColumns;
+        _outRows = ConvolutionLayer.outputExtent(inRows, filterSize, stepSize, padding);
+        _outColumns = ConvolutionLayer.outputExtent(inColumns, filterSize, stepSize, padding);
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        int filterVolume = _inLength * _filterSize * _filterSize;
+        int outputArea = _outRows * _outColumns;
+        int inputArea = _inRows * _inColumns;
+        boolean unitStep = _stepSize == 1 && _padding == 0;
+        int span = unitStep ? (_outRows - 1) * _inColumns + _outColumns : outputArea;  // Accumulators in use per filter
+
+        // Widen the input once so the tap loops multiply ints, which the JIT vectorizes
+        for (int k = 0; k < _inLength * inputArea; k++) {
+            widened[k] = input[k];
+        }
+
+        for (int f = 0; f < _numFilters; f++) {
+            Arrays.fill(accumulators, 0, span, 0);
+
+            for (int m = 0; m < _inLength; m++) {
+                int filterStart = f * filterVolume + m * _filterSize * _filterSize;
+                if (unitStep) {
+                    accumulateUnitStep(filterStart, widened, m * inputArea, accumulators, span);
+                } else {
+                    accumulate(filterStart, widened, m * inputArea, accumulators);
+                }
+            }
+
+            if (unitStep) {
+                // Drop the surplus columns of the wide rows, packing the sums at the start of accumulators
+                for (int i = 1; i < _outRows; i++) {
+                    System.arraycopy(accumulators, i * _inColumns, accumulators, i * _outColumns, _outColumns);
+                }
+            }
+
+            float multiplier = _filterScales[f] * _inputScale;
+            write(accumulators, outputArea, multiplier, f * outputArea, output, scores);
+        }
+    }
+
+    /**
+     * Adds one channel of a filter over an unpadded step-1 input. Output rows are computed as wide as input
+     * rows, so each filter tap becomes a single unit-stride loop over the whole map; the caller
+     * drops the surplus columns once every channel has been added.
+     */
+    private void accumulateUnitStep(int filterStart, int[] input, int inputStart, int[] accumulators, int span) {
+        for (int x = 0; x < _filterSize; x++) {
+            for (int y = 0; y < _filterSize; y++) {
+                int weight = _filters[filterStart + x * _filterSize + y];
+                if (weight == 0) {
+                    continue;
+                }
+
+                int shift = inputStart + x * _inColumns + y;
+                for (int p = 0; p < span; p++) {
+                    accumulators[p] += weight * input[p + shift];
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds one channel of a filter over the input for any step size and padding into {@code accumulators}.
+     * Taps that fall in the padding add nothing and are skipped.
+     */
+    private void accumulate(int filterStart, int[] input, int inputStart, int[] accumulators) {
+        for (int x = 0; x < _filterSize; x++) {
+            for (int y = 0; y < _filterSize; y++) {
+                int weight = _filters[filterStart + x * _filterSize + y];
+                if (weight == 0) {
+                    continue;
+                }
+
+                int firstColumn = ConvolutionLayer.firstInside(y, _stepSize, _padding);
+                int lastColumn = ConvolutionLayer.lastInside(y, _stepSize, _padding, _inColumns, _outColumns);
+                int lastRow = ConvolutionLayer.lastInside(x, _stepSize, _padding, _inRows, _outRows);
+
+                for (int i = ConvolutionLayer.firstInside(x, _stepSize, _padding); i <= lastRow; i++) {
+                    int inputRowStart = inputStart + (i * _stepSize + x - _padding) * _inColumns + y - _padding;
+                    int accumulatorRow = i * _outColumns;
+
+                    for (int j = firstColumn; j <= lastColumn; j++) {
+                        accumulators[accumulatorRow + j] += weight * input[inputRowStart + j * _stepSize];
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getScratchLength() {
+        return Math.max(getOutputElements(), (_outRows - 1) * _inColumns + _outColumns);
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _numFilters * _outRows * _outColumns;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return _filters.length;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return _filters.length + 4L * _filterScales.length;
+    }
+}
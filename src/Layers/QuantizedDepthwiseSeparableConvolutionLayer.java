@@ -0,0 +1,140 @@
+package Layers;
+
+import java.io.Serial;
+import java.util.Arrays;
+
+/**
+ * Int8 form of {@link DepthwiseSeparableConvolutionLayer}, with one weight scale per depthwise
+ * filter and one per pointwise filter.
+ * <p>
+ * The depthwise output between the two steps is never seen during calibration, so it is
+ * requantized to int8 with a scale taken from its largest magnitude in each forward pass.
+ */
+public class QuantizedDepthwiseSeparableConvolutionLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] _depthwiseFilters;       // Depthwise filters, shape (inLength, filterSize, filterSize)
+    private final float[] _depthwiseScales;       // Real value of one step of each depthwise filter
+    private final byte[] _pointwiseFilters;       // Pointwise filters, shape (numFilters, inLength)
+    private final float[] _pointwiseScales;       // Real value of one step of each pointwise filter
+    private final int _numFilters;
+    private final int _filterSize;
+    private final int _stepSize;
+    private final int _inLength;
+    private final int _inRows;
+    private final int _inColumns;
+    private final int _outRows;
+    private final int _outColumns;
+
+    QuantizedDepthwiseSeparableConvolutionLayer(byte[] depthwiseFilters, float[] depthwiseScales,
+                                                byte[] pointwiseFilters, float[] pointwiseScales,
+                                                int filterSize, int stepSize, int inRows, int inColumns,
+                                                float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _depthwiseFilters = depthwiseFilters;
+        _depthwiseScales = depthwiseScales;
+        _pointwiseFilters = pointwiseFilters;
+        _pointwiseScales = pointwiseScales;
+        _numFilters = pointwiseScales.length;
+        _filterSize = filterSize;
+        _stepSize = stepSize;
+        _inLength = depthwiseScales.length;
+        _inRows = inRows;
+        _inColumns = inColumns;
+        _outRows = (inRows - filterSize) / stepSize + 1;
+        _outColumns = (inColumns - filterSize) / stepSize + 1;
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        int outputArea = _outRows * _outColumns;
+        int inputArea = _inRows * _inColumns;
+
+        // Widen the input once so the tap loops multiply ints, which the JIT vectorizes
+        for (int k = 0; k < _inLength * inputArea; k++) {
+            widened[k] = input[k];
+        }
+
+        // Depthwise step: one filter per channel, summed into accumulators
+        Arrays.fill(accumulators, 0, _inLength * outputArea, 0);
+        double maxMagnitude = 0;
+        for (int m = 0; m < _inLength; m++) {
+            int channelStart = m * inputArea;
+            int outputStart = m * outputArea;
+
+            for (int x = 0; x < _filterSize; x++) {
+                for (int y = 0; y < _filterSize; y++) {
+                    int weight = _depthwiseFilters[(m * _filterSize + x) * _filterSize + y];
+                    if (weight == 0) {
+                        continue;
+                    }
+
+                    for (int i = 0; i < _outRows; i++) {
+                        int inputRowStart = channelStart + (i * _stepSize + x) * _inColumns + y;
+                        int outputRowStart = outputStart + i * _outColumns;
+
+                        for (int j = 0; j < _outColumns; j++) {
+                            accumulators[outputRowStart + j] += weight * widened[inputRowStart + j * _stepSize];
+                        }
+                    }
+                }
+            }
+
+            int largest = 0;
+            for (int p = outputStart; p < outputStart + outputArea; p++) {
+                largest = Math.max(largest, Math.abs(accumulators[p]));
+            }
+            maxMagnitude = Math.max(maxMagnitude, (double) largest * _depthwiseScales[m] * _inputScale);
+        }
+
+        // Requantize the depthwise output into widened, which the input no longer needs
+        float depthwiseScale = scaleFor(maxMagnitude);
+        for (int m = 0; m < _inLength; m++) {
+            double step = (double) _depthwiseScales[m] * _inputScale;
+            for (int p = m * outputArea; p < (m + 1) * outputArea; p++) {
+                widened[p] = quantize(accumulators[p] * step, depthwiseScale);
+            }
+        }
+
+        // Pointwise step: every output channel mixes all depthwise channels at each position
+        for (int f = 0; f < _numFilters; f++) {
+            Arrays.fill(accumulators, 0, outputArea, 0);
+
+            for (int m = 0; m < _inLength; m++) {
+                int weight = _pointwiseFilters[f * _inLength + m];
+                if (weight == 0) {
+                    continue;
+                }
+
+                int channelStart = m * outputArea;
+                for (int p = 0; p < outputArea; p++) {
+                    accumulators[p] += weight * widened[channelStart + p];
+                }
+            }
+
+            write(accumulators, outputArea, _pointwiseScales[f] * depthwiseScale, f * outputArea, output, scores);
+        }
+    }
+
+    @Override
+    public int getScratchLength() {
+        return Math.max(getOutputElements(), _inLength * _outRows * _outColumns);
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _numFilters * _outRows * _outColumns;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return _depthwiseFilters.length + _pointwiseFilters.length;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return _depthwiseFilters.length + _pointwiseFilters.length
+                + 4L * (_depthwiseScales.length + _pointwiseScales.length);
+    }
+}
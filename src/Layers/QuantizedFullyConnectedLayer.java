@@ -0,0 +1,65 @@
+package Layers;
+
+import java.io.Serial;
+import java.util.Arrays;
+
+/**
+ * Int8 form of {@link FullyConnectedLayer}, with one weight scale per output neuron.
+ */
+public class QuantizedFullyConnectedLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final byte[] _weights;        // Weights, shape (inLength, outLength)
+    private final float[] _columnScales;  // Real value of one step of each output column
+    private final int _inLength;
+    private final int _outLength;
+    private final boolean _linear;        // Whether the ReLU is skipped
+
+    QuantizedFullyConnectedLayer(byte[] weights, float[] columnScales, int inLength, boolean linear, float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _weights = weights;
+        _columnScales = columnScales;
+        _inLength = inLength;
+        _outLength = columnScales.length;
+        _linear = linear;
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        Arrays.fill(accumulators, 0, _outLength, 0);
+
+        // Stream the weight rows in memory order, skipping inputs that are zero
+        for (int i = 0; i < _inLength; i++) {
+            int x = input[i];
+            if (x == 0) {
+                continue;
+            }
+
+            int row = i * _outLength;
+            for (int j = 0; j < _outLength; j++) {
+                accumulators[j] += x * _weights[row + j];
+            }
+        }
+
+        for (int j = 0; j < _outLength; j++) {
+            float z = accumulators[j] * _columnScales[j] * _inputScale;
+            write(j, _linear || z > 0 ? z : 0, output, scores);  // Apply ReLU activation function
+        }
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _outLength;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return _weights.length;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return _weights.length + 4L * _columnScales.length;
+    }
+}
@@ -0,0 +1,122 @@
+package Layers;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+/**
+ * An int8 copy of a trained layer, used for inference only.
+ * <p>
+ * Weights are stored as signed bytes with one scale per output channel and activations as signed
+ * bytes with one scale per tensor. Every product is summed in an int accumulator, and the real
+ * output is rebuilt from the accumulator and the two scales. The output is then either rounded to
+ * int8 for the next layer or, for the last layer, written out as float scores.
+ */
+public abstract class QuantizedLayer implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    protected final float _inputScale;   // Real value of one input step
+    protected final float _outputScale;  // Real value of one output step
+
+    protected QuantizedLayer(float inputScale, float outputScale) {
+        _inputScale = inputScale;
+        _outputScale = outputScale;
+    }
+
+    /**
+     * Runs one sample through this layer.
+     *
+     * @param input The int8 input, quantized with this layer's input scale.
+     * @param output Receives the int8 output, quantized with this layer's output scale; unused if {@code scores} is given.
+     * @param scores Receives the real-valued output instead, or null to write {@code output}.
+     * @param accumulators Scratch space with at least {@link #getScratchLength()} ints.
+     * @param widened Scratch space with at least as many ints as the input has elements.
+     */
+    public abstract void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened);
+
+    public abstract int getOutputElements();
+
+    /**
+     * @return Number of ints the layer needs in its accumulator scratch space.
+     */
+    public int getScratchLength() {
+        return getOutputElements();
+    }
+
+    /**
+     * @return Number of weights in the layer.
+     */
+    public abstract int getWeightCount();
+
+    /**
+     * @return Bytes taken by the quantized weights and their scales.
+     */
+    public abstract long getWeightBytes();
+
+    public float getInputScale() {
+        return _inputScale;
+    }
+
+    public float getOutputScale() {
+        return _outputScale;
+    }
+
+    /**
+     * Rounds a real value to the nearest int8 step, saturating at +-127.
+     *
+     * @param value The real value.
+     * @param scale Real value of one step.
+     * @return The quantized value.
+     */
+    public static byte quantize(double value, float scale) {
+        long q = Math.round(value / scale);
+        return (byte) Math.max(-127, Math.min(127, q));
+    }
+
+    /**
+     * Computes a symmetric scale that maps the given magnitude to 127.
+     *
+     * @param maxMagnitude Largest absolute value to represent.
+     * @return The scale, or 1 if the magnitude is zero.
+     */
+    public static float scaleFor(double maxMagnitude) {
+        return maxMagnitude > 0 ? (float) (maxMagnitude / 127) : 1.0f;
+    }
+
+    /**
+     * Rescales a run of accumulators to real values and writes them as scores or as int8 values.
+     * Requantizing folds both scales into one multiplier, so each value costs one multiply and a round.
+     *
+     * @param accumulators Integer sums to write.
+     * @param length Number of sums to write.
+     * @param multiplier Real value of one accumulator step.
+     * @param outputStart Index in the output of the first value.
+     * @param output Receives the int8 values when {@code scores} is null.
+     * @param scores Receives the real values, or null.
+     */
+    protected final void write(int[] accumulators, int length, float multiplier, int outputStart, byte[] output, float[] scores) {
+        if (scores != null) {
+            for (int p = 0; p < length; p++) {
+                scores[outputStart + p] = accumulators[p] * multiplier;
+            }
+            return;
+        }
+
+        float requantize = multiplier / _outputScale;
+        for (int p = 0; p < length; p++) {
+            int q = Math.round(accumulators[p] * requantize);
+            output[outputStart + p] = (byte) Math.max(-127, Math.min(127, q));
+        }
+    }
+
+    /**
+     * Writes one real output value as a score or as an int8 value.
+     */
+    protected final void write(int index, float value, byte[] output, float[] scores) {
+        if (scores != null) {
+            scores[index] = value;
+        } else {
+            output[index] = quantize(value, _outputScale);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Int8 form of {@link MaxPoolLayer}. Quantization preserves order, so the max is taken on the
+ * int8 values directly and only rescaled if the next layer uses a different scale.
+ */
+public class QuantizedMaxPoolLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int _stepSize;
+    private final int _windowSize;
+    private final int _inLength;
+    private final int _inRows;
+    private final int _inColumns;
+    private final int _outRows;
+    private final int _outColumns;
+
+    QuantizedMaxPoolLayer(int stepSize, int windowSize, int inLength, int inRows, int inColumns, float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _stepSize = stepSize;
+        _windowSize = windowSize;
+        _inLength = inLength;
+        _inRows = inRows;
+        _inColumns = inColumns;
+        _outRows = (inRows - windowSize) / stepSize + 1;
+        _outColumns = (inColumns - windowSize) / stepSize + 1;
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        int inputArea = _inRows * _inColumns;
+        int outputArea = _outRows * _outColumns;
+
+        for (int l = 0; l < _inLength; l++) {
+            // Visit the same windows as MaxPoolLayer.pool, leaving the other cells at zero
+            for (int cell = 0; cell < outputArea; cell++) {
+                write(l * outputArea + cell, 0, output, scores);
+            }
+
+            for (int r = 0; r < _outRows; r += _stepSize) {
+                for (int c = 0; c < _outColumns; c += _stepSize) {
+                    int max = Byte.MIN_VALUE;
+
+                    for (int x = 0; x < _windowSize && r + x < _inRows; x++) {
+                        for (int y = 0; y < _windowSize && c + y < _inColumns; y++) {
+                            max = Math.max(max, input[l * inputArea + (r + x) * _inColumns + c + y]);
+                        }
+                    }
+
+                    write(l * outputArea + r * _outColumns + c, max * _inputScale, output, scores);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _inLength * _outRows * _outColumns;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return 0;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return 0;
+    }
+}
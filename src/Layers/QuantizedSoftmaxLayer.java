@@ -0,0 +1,51 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Int8 form of {@link SoftmaxCrossEntropyLayer}. The int8 scores are rescaled to real values and
+ * the softmax is taken in float, so the probabilities are only as coarse as the scores' 255 levels.
+ */
+public class QuantizedSoftmaxLayer extends QuantizedLayer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final int _inLength;
+
+    QuantizedSoftmaxLayer(int inLength, float inputScale, float outputScale) {
+        super(inputScale, outputScale);
+        _inLength = inLength;
+    }
+
+    @Override
+    public void forward(byte[] input, byte[] output, float[] scores, int[] accumulators, int[] widened) {
+        int max = Integer.MIN_VALUE;
+        for (int i = 0; i < _inLength; i++) {
+            max = Math.max(max, input[i]);
+        }
+
+        float sum = 0;
+        for (int i = 0; i < _inLength; i++) {
+            sum += (float) Math.exp((input[i] - max) * _inputScale);
+        }
+
+        for (int i = 0; i < _inLength; i++) {
+            write(i, (float) Math.exp((input[i] - max) * _inputScale) / sum, output, scores);
+        }
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _inLength;
+    }
+
+    @Override
+    public int getWeightCount() {
+        return 0;
+    }
+
+    @Override
+    public long getWeightBytes() {
+        return 0;
+    }
+}
@@ -0,0 +1,42 @@
+package Layers;
+
+import java.io.Serial;
+
+/**
+ * Plain stochastic gradient descent: {@code w -= learningRate * g}. It keeps no state, and weights
+ * whose gradient is zero are not written at all, which keeps lock-free concurrent updates sparse.
+ * This is what every layer uses unless it is given another optimizer.
+ */
+public final class SgdOptimizer implements Optimizer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void update(double[] weights, double[] gradient, double learningRate, double scale) {
+        double step = learningRate * scale;
+
+        for (int k = 0; k < weights.length; k++) {
+            if (gradient[k] != 0) {  // Skip untouched weights so concurrent trainers write only what changed
+                weights[k] -= gradient[k] * step;
+                gradient[k] = 0;
+            }
+        }
+    }
+
+    @Override
+    public void update(float[] weights, float[] gradient, double learningRate, double scale) {
+        float step = (float) (learningRate * scale);
+
+        for (int k = 0; k < weights.length; k++) {
+            if (gradient[k] != 0) {
+                weights[k] -= gradient[k] * step;
+                gradient[k] = 0;
+            }
+        }
+    }
+
+    @Override
+    public Optimizer copy() {
+        return this;  // Stateless, so one instance can serve every layer
+    }
+}
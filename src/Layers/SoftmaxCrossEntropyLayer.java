@@ -0,0 +1,153 @@
+package Layers;
+
+import data.Tensor;
+
+import java.io.Serial;
+
+/**
+ * Output layer that turns the scores of the layer before it into class probabilities with a
+ * softmax, for training against the cross-entropy loss.
+ * <p>
+ * Each probability is computed as {@code exp(z - logSumExp(z))}, where the log-sum-exp subtracts
+ * the largest score before exponentiating, so nothing overflows however large the scores grow.
+ * <p>
+ * The cross-entropy gradient w.r.t. the scores is {@code p - y} for probabilities p and one-hot
+ * label y, which is exactly what {@code NeuralNetwork.getErrors} computes from this layer's output.
+ * {@link #backward} therefore takes those errors as the gradient w.r.t. its input and copies them
+ * through, so the softmax Jacobian is never formed and a training step costs one pass over the
+ * classes in each direction, with no allocation.
+ */
+public class SoftmaxCrossEntropyLayer extends Layer {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private int _inLength;  // Number of classes
+
+    /**
+     * Constructor to initialize the SoftmaxCrossEntropyLayer.
+     *
+     * @param _inLength Number of classes, i.e. outputs of the layer before this one.
+     */
+    public SoftmaxCrossEntropyLayer(int _inLength) {
+        this._inLength = _inLength;
+    }
+
+    @Override
+    public LayerContext createContext() {
+        LayerContext context = new LayerContext();
+        context.output = new Tensor(_inLength);
+        context.inputGradient = new Tensor(_inLength);
+        return context;
+    }
+
+    @Override
+    public Tensor forward(Tensor input, LayerContext context) {
+        checkElements(input, _inLength);
+        context.input = input;
+
+        softmax(input.getData(), input.getOffset(), _inLength, context.output.getData(), context.output.getOffset());
+        return context.output;
+    }
+
+    @Override
+    public Tensor forwardBatch(Tensor batch) {
+        int batchSize = batch.dim(0);
+        checkElements(batch, batchSize * _inLength);
+        Tensor output = new Tensor(batchSize, _inLength);
+
+        for (int n = 0; n < batchSize; n++) {
+            softmax(batch.getData(), batch.getOffset() + n * _inLength, _inLength, output.getData(), n * _inLength);
+        }
+
+        return output;
+    }
+
+    /**
+     * Writes the softmax of a run of scores.
+     *
+     * @param scores Backing array of the scores.
+     * @param scoresOffset Index of the first score.
+     * @param length Number of scores.
+     * @param probabilities Receives the probabilities; may be the scores array itself.
+     * @param probabilitiesOffset Index of the first probability.
+     */
+    static void softmax(double[] scores, int scoresOffset, int length, double[] probabilities, int probabilitiesOffset) {
+        double logSumExp = logSumExp(scores, scoresOffset, length);
+
+        for (int i = 0; i < length; i++) {
+            probabilities[probabilitiesOffset + i] = Math.exp(scores[scoresOffset + i] - logSumExp);
+        }
+    }
+
+    /**
+     * Computes {@code log(sum(exp(z)))} without overflow by factoring out the largest score.
+     *
+     * @param scores Backing array of the scores.
+     * @param offset Index of the first score.
+     * @param length Number of scores.
+     * @return The log of the sum of the exponentials.
+     */
+    public static double logSumExp(double[] scores, int offset, int length) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < length; i++) {
+            max = Math.max(max, scores[offset + i]);
+        }
+
+        double sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.exp(scores[offset + i] - max);
+        }
+
+        return max + Math.log(sum);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>
+     * {@code dLdO} must be the errors {@code p - y} from {@code NeuralNetwork.getErrors}, which are
+     * already the cross-entropy gradient w.r.t. this layer's input, so they are copied through.
+     */
+    @Override
+    public Tensor backward(Tensor dLdO, LayerContext context) {
+        Tensor dLdX = context.inputGradient;
+
+        try {
+            checkElements(dLdO, _inLength);
+            System.arraycopy(dLdO.getData(), dLdO.getOffset(), dLdX.getData(), dLdX.getOffset(), _inLength);
+        } catch (Exception e) {
+            System.err.println("Error during backpropagation: " + e.getMessage());
+            e.printStackTrace();
+        }
+
+        return dLdX;
+    }
+
+    @Override
+    public InferenceOp compile() {
+        return InferenceOp.softmax(_inLength);
+    }
+
+    @Override
+    public QuantizedLayer quantize(float inputScale, float outputScale) {
+        return new QuantizedSoftmaxLayer(_inLength, inputScale, outputScale);
+    }
+
+    @Override
+    public int getOutputLength() {
+        return 0;  // This method is not used in a softmax layer
+    }
+
+    @Override
+    public int getOutputRows() {
+        return 0;  // This method is not used in a softmax layer
+    }
+
+    @Override
+    public int getOutputColumns() {
+        return 0;  // This method is not used in a softmax layer
+    }
+
+    @Override
+    public int getOutputElements() {
+        return _inLength;  // One probability per class
+    }
+}
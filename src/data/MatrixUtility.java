@@ -1,9 +1,27 @@
 package data;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
+/**
+ * Matrix and vector kernels used by the layers.
+ * <p>
+ * Most kernels work on flat row-major arrays addressed by an offset and a leading dimension,
+ * come in an in-place or out-parameter form so hot loops do not allocate, and keep their
+ * innermost loop unit-stride and free of branches so HotSpot's superword pass compiles it to
+ * SIMD instructions. The older allocating helpers are kept for callers outside the hot path.
+ * <p>
+ * The BLAS-style kernels also have single-precision overloads for layers running in float32 mode.
+ * They mirror the double versions loop for loop, so a vector register holds twice as many lanes.
+ */
 public class MatrixUtility implements Serializable {
     private static final long serialVersionUID = 1L;
+
+    // Tile sizes for gemm: a BLOCK_K x BLOCK_J panel of B (256 KB of doubles) stays in L2 while
+    // BLOCK_I rows of A and C stream past it, and one row of the panel fits comfortably in L1.
+    private static final int BLOCK_I = 64;
+    private static final int BLOCK_J = 256;
+    private static final int BLOCK_K = 128;
     /**
      * Performs element-wise addition of two matrices.
      *
@@ -88,4 +106,534 @@ public class MatrixUtility implements Serializable {
         return out;  // Return the resulting vector
     }
 
+    /**
+     * Element-wise addition of two vectors into a caller-supplied array, which may be a or b.
+     *
+     * @param a The first vector.
+     * @param b The second vector.
+     * @param out Receives a + b.
+     */
+    public static void add(double[] a, double[] b, double[] out) {
+        for (int i = 0; i < a.length; i++) {
+            out[i] = a[i] + b[i];
+        }
+    }
+
+    /**
+     * Multiplies each element of a vector by a scalar into a caller-supplied array, which may be a.
+     *
+     * @param a The vector to be multiplied.
+     * @param scalar The scalar value to multiply each element by.
+     * @param out Receives a * scalar.
+     */
+    public static void multiply(double[] a, double scalar, double[] out) {
+        for (int i = 0; i < a.length; i++) {
+            out[i] = a[i] * scalar;
+        }
+    }
+
+    /**
+     * In-place AXPY: {@code y += alpha * x} over n elements.
+     *
+     * @param n Number of elements.
+     * @param alpha Scale applied to x.
+     * @param x Backing array of x.
+     * @param xOffset Index of x's first element.
+     * @param y Backing array of y, updated in place.
+     * @param yOffset Index of y's first element.
+     */
+    public static void axpy(int n, double alpha, double[] x, int xOffset, double[] y, int yOffset) {
+        for (int i = 0; i < n; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Out-parameter AXPY: {@code out = alpha * x + y} over n elements. out may alias x or y.
+     */
+    public static void axpy(int n, double alpha, double[] x, int xOffset, double[] y, int yOffset, double[] out, int outOffset) {
+        for (int i = 0; i < n; i++) {
+            out[outOffset + i] = alpha * x[xOffset + i] + y[yOffset + i];
+        }
+    }
+
+    /**
+     * In-place element-wise fused multiply-add: {@code c = a * b + c} with a single rounding per element.
+     *
+     * @param n Number of elements.
+     * @param a Backing array of a.
+     * @param aOffset Index of a's first element.
+     * @param b Backing array of b.
+     * @param bOffset Index of b's first element.
+     * @param c Backing array of c, updated in place.
+     * @param cOffset Index of c's first element.
+     */
+    public static void fma(int n, double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset) {
+        for (int i = 0; i < n; i++) {
+            c[cOffset + i] = Math.fma(a[aOffset + i], b[bOffset + i], c[cOffset + i]);
+        }
+    }
+
+    /**
+     * Out-parameter element-wise fused multiply-add: {@code out = a * b + c}. out may alias any input.
+     */
+    public static void fma(int n, double[] a, int aOffset, double[] b, int bOffset, double[] c, int cOffset, double[] out, int outOffset) {
+        for (int i = 0; i < n; i++) {
+            out[outOffset + i] = Math.fma(a[aOffset + i], b[bOffset + i], c[cOffset + i]);
+        }
+    }
+
+    /**
+     * Dot product of two vectors of n elements.
+     */
+    public static double dot(int n, double[] x, int xOffset, double[] y, int yOffset) {
+        double sum = 0.0;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * General matrix-vector multiply on a row-major matrix: {@code y = alpha * op(A) * x + beta * y}.
+     * <p>
+     * Without transpose each output is a unit-stride dot product over a row of A. With transpose
+     * the rows of A are added into y with AXPY, so both forms read A in memory order. The transposed
+     * form works on blocks of {@code BLOCK_J} columns so the slice of y being updated stays in L1;
+     * when n is larger than that, A is streamed once per column block.
+     *
+     * @param transpose Whether to use the transpose of A.
+     * @param m Rows of A as stored.
+     * @param n Columns of A as stored.
+     * @param alpha Scale applied to the product.
+     * @param a Backing array of A.
+     * @param aOffset Index of A's first element.
+     * @param lda Distance between rows of A.
+     * @param x Backing array of x; length n, or m when transposed.
+     * @param xOffset Index of x's first element.
+     * @param beta Scale applied to y before the product is added; 0 overwrites y.
+     * @param y Backing array of y; length m, or n when transposed.
+     * @param yOffset Index of y's first element.
+     */
+    public static void gemv(boolean transpose, int m, int n, double alpha, double[] a, int aOffset, int lda,
+                            double[] x, int xOffset, double beta, double[] y, int yOffset) {
+        int yLength = transpose ? n : m;
+        if (beta == 0) {
+            Arrays.fill(y, yOffset, yOffset + yLength, 0.0);
+        } else if (beta != 1) {
+            for (int i = 0; i < yLength; i++) {
+                y[yOffset + i] *= beta;
+            }
+        }
+
+        if (!transpose) {
+            for (int i = 0; i < m; i++) {
+                y[yOffset + i] += alpha * dot(n, a, aOffset + i * lda, x, xOffset);
+            }
+            return;
+        }
+
+        for (int j0 = 0; j0 < n; j0 += BLOCK_J) {
+            int width = Math.min(BLOCK_J, n - j0);
+            for (int i = 0; i < m; i++) {
+                axpy(width, alpha * x[xOffset + i], a, aOffset + i * lda + j0, y, yOffset + j0);
+            }
+        }
+    }
+
+    /**
+     * Rank-1 update of a row-major matrix: {@code A += alpha * x * y^T}.
+     *
+     * @param m Rows of A.
+     * @param n Columns of A.
+     * @param alpha Scale applied to the outer product.
+     * @param x Backing array of x, length m.
+     * @param xOffset Index of x's first element.
+     * @param y Backing array of y, length n.
+     * @param yOffset Index of y's first element.
+     * @param a Backing array of A, updated in place.
+     * @param aOffset Index of A's first element.
+     * @param lda Distance between rows of A.
+     */
+    public static void ger(int m, int n, double alpha, double[] x, int xOffset, double[] y, int yOffset,
+                           double[] a, int aOffset, int lda) {
+        for (int i = 0; i < m; i++) {
+            double xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                axpy(n, xi, y, yOffset, a, aOffset + i * lda);
+            }
+        }
+    }
+
+    /**
+     * Sparse form of {@link #gemv(boolean, int, int, double, double[], int, int, double[], int, double, double[], int)}
+     * on a matrix stored in compressed sparse row (CSR) form: row i's non-zeros are
+     * {@code values[rowStarts[i] .. rowStarts[i + 1])}, in the columns listed at the same indices of {@code columns}.
+     * <p>
+     * Without transpose each output is a dot product over one row's non-zeros. With transpose each
+     * row's non-zeros are scattered into y, and rows whose x is zero are skipped.
+     *
+     * @param transpose Whether to use the transpose of A.
+     * @param m Rows of A as stored.
+     * @param n Columns of A as stored.
+     * @param alpha Scale applied to the product.
+     * @param rowStarts Index of each row's first non-zero, plus the total count at index m.
+     * @param columns Column of each non-zero.
+     * @param values Value of each non-zero.
+     * @param x Backing array of x; length n, or m when transposed.
+     * @param xOffset Index of x's first element.
+     * @param beta Scale applied to y before the product is added; 0 overwrites y.
+     * @param y Backing array of y; length m, or n when transposed.
+     * @param yOffset Index of y's first element.
+     */
+    public static void csrmv(boolean transpose, int m, int n, double alpha, int[] rowStarts, int[] columns, double[] values,
+                             double[] x, int xOffset, double beta, double[] y, int yOffset) {
+        int yLength = transpose ? n : m;
+        if (beta == 0) {
+            Arrays.fill(y, yOffset, yOffset + yLength, 0.0);
+        } else if (beta != 1) {
+            for (int i = 0; i < yLength; i++) {
+                y[yOffset + i] *= beta;
+            }
+        }
+
+        for (int i = 0; i < m; i++) {
+            if (!transpose) {
+                double sum = 0.0;
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    sum += values[k] * x[xOffset + columns[k]];
+                }
+                y[yOffset + i] += alpha * sum;
+                continue;
+            }
+
+            double xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    y[yOffset + columns[k]] += xi * values[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Rank-1 update restricted to the non-zeros of a CSR matrix: {@code A += alpha * x * y^T} at
+     * every stored position. Positions outside the pattern are not stored and stay zero.
+     *
+     * @param m Rows of A.
+     * @param alpha Scale applied to the outer product.
+     * @param x Backing array of x, length m.
+     * @param xOffset Index of x's first element.
+     * @param y Backing array of y, one value per column of A.
+     * @param yOffset Index of y's first element.
+     * @param rowStarts Index of each row's first non-zero, plus the total count at index m.
+     * @param columns Column of each non-zero.
+     * @param values Value of each non-zero, updated in place.
+     */
+    public static void csrger(int m, double alpha, double[] x, int xOffset, double[] y, int yOffset,
+                              int[] rowStarts, int[] columns, double[] values) {
+        for (int i = 0; i < m; i++) {
+            double xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    values[k] += xi * y[yOffset + columns[k]];
+                }
+            }
+        }
+    }
+
+    /**
+     * General matrix multiply on row-major matrices stored in flat arrays:
+     * {@code C = alpha * op(A) * op(B) + beta * C}, where {@code op(X)} is X or its transpose.
+     * <p>
+     * The loops are tiled so that a panel of B is reused from cache across many rows of A, and
+     * the innermost loop always walks memory with unit stride so the JIT can vectorize it.
+     *
+     * @param transposeA Whether to use the transpose of A.
+     * @param transposeB Whether to use the transpose of B.
+     * @param m Rows of op(A) and C.
+     * @param n Columns of op(B) and C.
+     * @param k Columns of op(A) and rows of op(B).
+     * @param alpha Scale applied to the product.
+     * @param a Backing array of A.
+     * @param aOffset Index of A's first element.
+     * @param lda Distance between rows of A as stored.
+     * @param b Backing array of B.
+     * @param bOffset Index of B's first element.
+     * @param ldb Distance between rows of B as stored.
+     * @param beta Scale applied to C before the product is added; 0 overwrites C.
+     * @param c Backing array of C.
+     * @param cOffset Index of C's first element.
+     * @param ldc Distance between rows of C.
+     */
+    public static void gemm(boolean transposeA, boolean transposeB, int m, int n, int k, double alpha,
+                            double[] a, int aOffset, int lda, double[] b, int bOffset, int ldb,
+                            double beta, double[] c, int cOffset, int ldc) {
+        for (int i = 0; i < m; i++) {
+            int row = cOffset + i * ldc;
+            if (beta == 0) {
+                Arrays.fill(c, row, row + n, 0.0);
+            } else if (beta != 1) {
+                for (int j = 0; j < n; j++) {
+                    c[row + j] *= beta;
+                }
+            }
+        }
+
+        if (alpha == 0 || k == 0) {
+            return;
+        }
+
+        for (int i0 = 0; i0 < m; i0 += BLOCK_I) {
+            int iEnd = Math.min(i0 + BLOCK_I, m);
+
+            for (int p0 = 0; p0 < k; p0 += BLOCK_K) {
+                int pEnd = Math.min(p0 + BLOCK_K, k);
+
+                for (int j0 = 0; j0 < n; j0 += BLOCK_J) {
+                    int jEnd = Math.min(j0 + BLOCK_J, n);
+
+                    if (!transposeB) {
+                        // Broadcast one element of A across a unit-stride row of B
+                        for (int i = i0; i < iEnd; i++) {
+                            int cRow = cOffset + i * ldc;
+
+                            for (int p = p0; p < pEnd; p++) {
+                                double aip = alpha * (transposeA ? a[aOffset + p * lda + i] : a[aOffset + i * lda + p]);
+                                int bRow = bOffset + p * ldb;
+
+                                for (int j = j0; j < jEnd; j++) {
+                                    c[cRow + j] += aip * b[bRow + j];
+                                }
+                            }
+                        }
+                    } else {
+                        // Rows of B are columns of op(B): take dot products along k
+                        for (int i = i0; i < iEnd; i++) {
+                            int cRow = cOffset + i * ldc;
+
+                            for (int j = j0; j < jEnd; j++) {
+                                int bRow = bOffset + j * ldb;
+                                double sum = 0.0;
+
+                                if (transposeA) {
+                                    for (int p = p0; p < pEnd; p++) {
+                                        sum += a[aOffset + p * lda + i] * b[bRow + p];
+                                    }
+                                } else {
+                                    int aRow = aOffset + i * lda;
+                                    for (int p = p0; p < pEnd; p++) {
+                                        sum += a[aRow + p] * b[bRow + p];
+                                    }
+                                }
+                                c[cRow + j] += alpha * sum;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision form of {@link #axpy(int, double, double[], int, double[], int)}.
+     */
+    public static void axpy(int n, float alpha, float[] x, int xOffset, float[] y, int yOffset) {
+        for (int i = 0; i < n; i++) {
+            y[yOffset + i] += alpha * x[xOffset + i];
+        }
+    }
+
+    /**
+     * Single-precision form of {@link #dot(int, double[], int, double[], int)}.
+     */
+    public static float dot(int n, float[] x, int xOffset, float[] y, int yOffset) {
+        float sum = 0.0f;
+        for (int i = 0; i < n; i++) {
+            sum += x[xOffset + i] * y[yOffset + i];
+        }
+        return sum;
+    }
+
+    /**
+     * Single-precision form of {@link #gemv(boolean, int, int, double, double[], int, int, double[], int, double, double[], int)}.
+     * The transposed form blocks columns by {@code BLOCK_J} in the same way, re-streaming the rows of A
+     * once per column block when n is larger.
+     */
+    public static void gemv(boolean transpose, int m, int n, float alpha, float[] a, int aOffset, int lda,
+                            float[] x, int xOffset, float beta, float[] y, int yOffset) {
+        int yLength = transpose ? n : m;
+        if (beta == 0) {
+            Arrays.fill(y, yOffset, yOffset + yLength, 0.0f);
+        } else if (beta != 1) {
+            for (int i = 0; i < yLength; i++) {
+                y[yOffset + i] *= beta;
+            }
+        }
+
+        if (!transpose) {
+            for (int i = 0; i < m; i++) {
+                y[yOffset + i] += alpha * dot(n, a, aOffset + i * lda, x, xOffset);
+            }
+            return;
+        }
+
+        for (int j0 = 0; j0 < n; j0 += BLOCK_J) {
+            int width = Math.min(BLOCK_J, n - j0);
+            for (int i = 0; i < m; i++) {
+                axpy(width, alpha * x[xOffset + i], a, aOffset + i * lda + j0, y, yOffset + j0);
+            }
+        }
+    }
+
+    /**
+     * Single-precision form of {@link #ger(int, int, double, double[], int, double[], int, double[], int, int)}.
+     */
+    public static void ger(int m, int n, float alpha, float[] x, int xOffset, float[] y, int yOffset,
+                           float[] a, int aOffset, int lda) {
+        for (int i = 0; i < m; i++) {
+            float xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                axpy(n, xi, y, yOffset, a, aOffset + i * lda);
+            }
+        }
+    }
+
+    /**
+     * Single-precision form of
+     * {@link #csrmv(boolean, int, int, double, int[], int[], double[], double[], int, double, double[], int)}.
+     */
+    public static void csrmv(boolean transpose, int m, int n, float alpha, int[] rowStarts, int[] columns, float[] values,
+                             float[] x, int xOffset, float beta, float[] y, int yOffset) {
+        int yLength = transpose ? n : m;
+        if (beta == 0) {
+            Arrays.fill(y, yOffset, yOffset + yLength, 0.0f);
+        } else if (beta != 1) {
+            for (int i = 0; i < yLength; i++) {
+                y[yOffset + i] *= beta;
+            }
+        }
+
+        for (int i = 0; i < m; i++) {
+            if (!transpose) {
+                float sum = 0.0f;
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    sum += values[k] * x[xOffset + columns[k]];
+                }
+                y[yOffset + i] += alpha * sum;
+                continue;
+            }
+
+            float xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    y[yOffset + columns[k]] += xi * values[k];
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision form of {@link #csrger(int, double, double[], int, double[], int, int[], int[], double[])}.
+     */
+    public static void csrger(int m, float alpha, float[] x, int xOffset, float[] y, int yOffset,
+                              int[] rowStarts, int[] columns, float[] values) {
+        for (int i = 0; i < m; i++) {
+            float xi = alpha * x[xOffset + i];
+            if (xi != 0) {
+                for (int k = rowStarts[i]; k < rowStarts[i + 1]; k++) {
+                    values[k] += xi * y[yOffset + columns[k]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Single-precision form of
+     * {@link #gemm(boolean, boolean, int, int, int, double, double[], int, int, double[], int, int, double, double[], int, int)}.
+     */
+    public static void gemm(boolean transposeA, boolean transposeB, int m, int n, int k, float alpha,
+                            float[] a, int aOffset, int lda, float[] b, int bOffset, int ldb,
+                            float beta, float[] c, int cOffset, int ldc) {
+        for (int i = 0; i < m; i++) {
+            int row = cOffset + i * ldc;
+            if (beta == 0) {
+                Arrays.fill(c, row, row + n, 0.0f);
+            } else if (beta != 1) {
+                for (int j = 0; j < n; j++) {
+                    c[row + j] *= beta;
+                }
+            }
+        }
+
+        if (alpha == 0 || k == 0) {
+            return;
+        }
+
+        for (int i0 = 0; i0 < m; i0 += BLOCK_I) {
+            int iEnd = Math.min(i0 + BLOCK_I, m);
+
+            for (int p0 = 0; p0 < k; p0 += BLOCK_K) {
+                int pEnd = Math.min(p0 + BLOCK_K, k);
+
+                for (int j0 = 0; j0 < n; j0 += BLOCK_J) {
+                    int jEnd = Math.min(j0 + BLOCK_J, n);
+
+                    if (!transposeB) {
+                        for (int i = i0; i < iEnd; i++) {
+                            int cRow = cOffset + i * ldc;
+
+                            for (int p = p0; p < pEnd; p++) {
+                                float aip = alpha * (transposeA ? a[aOffset + p * lda + i] : a[aOffset + i * lda + p]);
+                                int bRow = bOffset + p * ldb;
+
+                                for (int j = j0; j < jEnd; j++) {
+                                    c[cRow + j] += aip * b[bRow + j];
+                                }
+                            }
+                        }
+                    } else {
+                        for (int i = i0; i < iEnd; i++) {
+                            int cRow = cOffset + i * ldc;
+
+                            for (int j = j0; j < jEnd; j++) {
+                                int bRow = bOffset + j * ldb;
+                                float sum = 0.0f;
+
+                                if (transposeA) {
+                                    for (int p = p0; p < pEnd; p++) {
+                                        sum += a[aOffset + p * lda + i] * b[bRow + p];
+                                    }
+                                } else {
+                                    int aRow = aOffset + i * lda;
+                                    for (int p = p0; p < pEnd; p++) {
+                                        sum += a[aRow + p] * b[bRow + p];
+                                    }
+                                }
+                                c[cRow + j] += alpha * sum;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rounds {@code n} doubles to float.
+     */
+    public static void narrow(int n, double[] source, int sourceOffset, float[] target, int targetOffset) {
+        for (int i = 0; i < n; i++) {
+            target[targetOffset + i] = (float) source[sourceOffset + i];
+        }
+    }
+
+    /**
+     * Widens {@code n} floats to double.
+     */
+    public static void widen(int n, float[] source, int sourceOffset, double[] target, int targetOffset) {
+        for (int i = 0; i < n; i++) {
+            target[targetOffset + i] = source[sourceOffset + i];
+        }
+    }
 }
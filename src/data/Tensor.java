@@ -0,0 +1,251 @@
+package data;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * An n-dimensional array of doubles backed by a single flat primitive array.
+ * <p>
+ * Elements are addressed through an offset and a stride per axis, so slicing and reshaping
+ * produce views that share the backing array instead of copying it. Layers pass tensors to
+ * each other in channel-major, row-major order (channels, rows, columns), which is the same
+ * order the old matrix-to-vector conversion produced.
+ */
+public class Tensor implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final double[] _data;  // Backing storage, possibly shared with other views
+    private final int _offset;     // Index of the first element in the backing array
+    private final int[] _shape;    // Extent of each axis
+    private final int[] _strides;  // Distance in the backing array between neighbours along each axis
+
+    /**
+     * Creates a zero-filled contiguous tensor with the given shape.
+     *
+     * @param shape Extent of each axis.
+     */
+    public Tensor(int... shape) {
+        this(new double[sizeOf(shape)], 0, shape.clone(), contiguousStrides(shape));
+    }
+
+    private Tensor(double[] data, int offset, int[] shape, int[] strides) {
+        _data = data;
+        _offset = offset;
+        _shape = shape;
+        _strides = strides;
+    }
+
+    /**
+     * Wraps an existing array as a contiguous tensor without copying it.
+     *
+     * @param data The backing array.
+     * @param shape Extent of each axis; the product must equal {@code data.length}.
+     * @return A tensor view over {@code data}.
+     */
+    public static Tensor wrap(double[] data, int... shape) {
+        if (sizeOf(shape) != data.length) {
+            throw new IllegalArgumentException("Shape " + Arrays.toString(shape) + " does not match " + data.length + " elements");
+        }
+        return new Tensor(data, 0, shape.clone(), contiguousStrides(shape));
+    }
+
+    /**
+     * Copies a matrix into a new single-channel tensor of shape (1, rows, columns).
+     *
+     * @param matrix The matrix to copy.
+     * @param scalar Value each element is multiplied by while copying.
+     * @return A new tensor holding the scaled matrix.
+     */
+    public static Tensor fromMatrix(double[][] matrix, double scalar) {
+        int rows = matrix.length;
+        int columns = matrix[0].length;
+        double[] data = new double[rows * columns];
+
+        int i = 0;
+        for (double[] row : matrix) {
+            for (int c = 0; c < columns; c++) {
+                data[i++] = row[c] * scalar;
+            }
+        }
+
+        return new Tensor(data, 0, new int[]{1, rows, columns}, contiguousStrides(new int[]{1, rows, columns}));
+    }
+
+    /**
+     * @return The backing array. Index it with {@link #getOffset()} and the strides.
+     */
+    public double[] getData() {
+        return _data;
+    }
+
+    public int getOffset() {
+        return _offset;
+    }
+
+    public int rank() {
+        return _shape.length;
+    }
+
+    public int dim(int axis) {
+        return _shape[axis];
+    }
+
+    public int stride(int axis) {
+        return _strides[axis];
+    }
+
+    public int[] getShape() {
+        return _shape.clone();
+    }
+
+    /**
+     * @return The total number of elements.
+     */
+    public int size() {
+        return sizeOf(_shape);
+    }
+
+    /**
+     * @return True if the elements occupy one unbroken run of the backing array in row-major order.
+     */
+    public boolean isContiguous() {
+        int expected = 1;
+        for (int axis = _shape.length - 1; axis >= 0; axis--) {
+            if (_shape[axis] != 1 && _strides[axis] != expected) {
+                return false;
+            }
+            expected *= _shape[axis];
+        }
+        return true;
+    }
+
+    /**
+     * Reads an element of a rank-1 tensor, or the i-th element in row-major order of a contiguous tensor.
+     */
+    public double get(int i) {
+        return _data[_offset + i * _strides[_strides.length - 1]];
+    }
+
+    public double get(int row, int column) {
+        return _data[_offset + row * _strides[0] + column * _strides[1]];
+    }
+
+    public double get(int channel, int row, int column) {
+        return _data[_offset + channel * _strides[0] + row * _strides[1] + column * _strides[2]];
+    }
+
+    public void set(int i, double value) {
+        _data[_offset + i * _strides[_strides.length - 1]] = value;
+    }
+
+    public void set(int row, int column, double value) {
+        _data[_offset + row * _strides[0] + column * _strides[1]] = value;
+    }
+
+    public void set(int channel, int row, int column, double value) {
+        _data[_offset + channel * _strides[0] + row * _strides[1] + column * _strides[2]] = value;
+    }
+
+    /**
+     * Returns a view of one index along the first axis, dropping that axis.
+     *
+     * @param index Position along the first axis.
+     * @return A view sharing this tensor's storage.
+     */
+    public Tensor slice(int index) {
+        if (index < 0 || index >= _shape[0]) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for axis of length " + _shape[0]);
+        }
+        return new Tensor(_data, _offset + index * _strides[0],
+                Arrays.copyOfRange(_shape, 1, _shape.length), Arrays.copyOfRange(_strides, 1, _strides.length));
+    }
+
+    /**
+     * Returns a view of this tensor with a different shape. The tensor must be contiguous.
+     *
+     * @param shape The new shape; its element count must match.
+     * @return A view sharing this tensor's storage.
+     */
+    public Tensor reshape(int... shape) {
+        if (sizeOf(shape) != size()) {
+            throw new IllegalArgumentException("Cannot reshape " + Arrays.toString(_shape) + " to " + Arrays.toString(shape));
+        }
+        if (!isContiguous()) {
+            throw new IllegalStateException("Only contiguous tensors can be reshaped without copying");
+        }
+        return new Tensor(_data, _offset, shape.clone(), contiguousStrides(shape));
+    }
+
+    /**
+     * Copies the elements into a new array in row-major order.
+     */
+    public double[] toArray() {
+        if (isContiguous()) {
+            return Arrays.copyOfRange(_data, _offset, _offset + size());
+        }
+        double[] out = new double[size()];
+        copyInto(out, 0, _offset, 0);
+        return out;
+    }
+
+    /**
+     * @return A contiguous deep copy of this tensor.
+     */
+    public Tensor copy() {
+        return new Tensor(toArray(), 0, _shape.clone(), contiguousStrides(_shape));
+    }
+
+    /**
+     * Sets every element to the given value.
+     */
+    public void fill(double value) {
+        if (isContiguous()) {
+            Arrays.fill(_data, _offset, _offset + size(), value);
+        } else {
+            for (int i = 0; i < _shape[0]; i++) {
+                slice(i).fill(value);
+            }
+        }
+    }
+
+    private int copyInto(double[] out, int position, int base, int axis) {
+        if (axis == _shape.length - 1) {
+            for (int i = 0; i < _shape[axis]; i++) {
+                out[position++] = _data[base + i * _strides[axis]];
+            }
+            return position;
+        }
+        for (int i = 0; i < _shape[axis]; i++) {
+            position = copyInto(out, position, base + i * _strides[axis], axis + 1);
+        }
+        return position;
+    }
+
+    private static int sizeOf(int[] shape) {
+        int size = 1;
+        for (int extent : shape) {
+            if (extent < 0) {
+                throw new IllegalArgumentException("Negative extent in shape " + Arrays.toString(shape));
+            }
+            size *= extent;
+        }
+        return size;
+    }
+
+    private static int[] contiguousStrides(int[] shape) {
+        int[] strides = new int[shape.length];
+        int stride = 1;
+        for (int axis = shape.length - 1; axis >= 0; axis--) {
+            strides[axis] = stride;
+            stride *= shape[axis];
+        }
+        return strides;
+    }
+
+    @Override
+    public String toString() {
+        return "Tensor" + Arrays.toString(_shape);
+    }
+}
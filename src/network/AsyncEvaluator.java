@@ -0,0 +1,134 @@
+package network;
+
+import data.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+
+/**
+ * Tests network snapshots on a fixed set of images in the background, so training does not stop
+ * at the end of every epoch to measure accuracy.
+ * <p>
+ * {@link #evaluate(NetworkSnapshot)} returns at once. The snapshot is restored and compiled on
+ * the evaluator's own threads and the images are split into one contiguous shard per thread. The
+ * accuracy is the one {@link InferencePlan#test(List)} reports, whatever the thread count.
+ */
+public class AsyncEvaluator implements AutoCloseable {
+    private final List<Image> _images;  // Images every snapshot is tested on
+    private final ForkJoinPool _pool;  // Threads restoring, compiling and testing the snapshots
+
+    /**
+     * Creates an evaluator for the given images.
+     *
+     * @param images The images to test on, e.g. the test set; the list itself is not changed.
+     * @param threads Number of threads testing each snapshot.
+     */
+    public AsyncEvaluator(List<Image> images, int threads) {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("An evaluator needs at least one image");
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1, was " + threads);
+        }
+        _images = new ArrayList<>(images);
+        _pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Starts testing a snapshot and returns without waiting for the result.
+     *
+     * @param snapshot The weights to test.
+     * @return The pending evaluation.
+     */
+    public Evaluation evaluate(NetworkSnapshot snapshot) {
+        return new Evaluation(snapshot, _pool.submit(() -> countCorrect(snapshot)));
+    }
+
+    /**
+     * Restores and compiles a snapshot and counts the images it classifies correctly. Runs on a pool thread.
+     */
+    private int countCorrect(NetworkSnapshot snapshot) {
+        InferencePlan plan = snapshot.restore().compile();
+        int threads = _pool.getParallelism();
+        int shardSize = (_images.size() + threads - 1) / threads;
+
+        List<ForkJoinTask<Integer>> shards = new ArrayList<>(threads);
+        for (int from = shardSize; from < _images.size(); from += shardSize) {
+            List<Image> shard = _images.subList(from, Math.min(from + shardSize, _images.size()));
+            shards.add(ForkJoinTask.adapt(() -> countCorrect(plan, shard)).fork());
+        }
+
+        int correct = countCorrect(plan, _images.subList(0, Math.min(shardSize, _images.size())));
+        for (ForkJoinTask<Integer> shard : shards) {
+            correct += shard.join();
+        }
+        return correct;
+    }
+
+    private static int countCorrect(InferencePlan plan, List<Image> images) {
+        int correct = 0;
+
+        for (Image image : images) {
+            if (plan.guess(image) == image.getLabel()) {
+                correct++;
+            }
+        }
+
+        return correct;
+    }
+
+    /**
+     * Shuts down the threads. Evaluations already started still finish.
+     */
+    @Override
+    public void close() {
+        _pool.shutdown();
+    }
+
+    /**
+     * A snapshot being tested, and later its result.
+     */
+    public final class Evaluation {
+        private final NetworkSnapshot _snapshot;  // The weights being tested
+        private final Future<Integer> _correct;  // Number of images classified correctly
+
+        private Evaluation(NetworkSnapshot snapshot, Future<Integer> correct) {
+            _snapshot = snapshot;
+            _correct = correct;
+        }
+
+        /**
+         * @return The snapshot being tested, e.g. to save it once it turns out to be the best.
+         */
+        public NetworkSnapshot snapshot() {
+            return _snapshot;
+        }
+
+        /**
+         * @return Whether the result is available without waiting.
+         */
+        public boolean isDone() {
+            return _correct.isDone();
+        }
+
+        /**
+         * Waits for the test to finish if it has not already.
+         *
+         * @return The fraction of images the snapshot classifies correctly.
+         */
+        public float accuracy() {
+            try {
+                return (float) _correct.get() / _images.size();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for an evaluation", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Evaluation failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+}
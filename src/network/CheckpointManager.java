@@ -0,0 +1,136 @@
+package network;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves training checkpoints on a background thread, so training never waits for the disk.
+ * <p>
+ * {@link #save(NetworkSnapshot, int, float)} only queues the snapshot. A single writer thread
+ * then writes each checkpoint to {@code checkpoint_epochNNN.ser} in the checkpoint directory,
+ * through a temporary file that is forced to disk and renamed into place, so a crash never leaves
+ * a truncated model. The last {@code keepLast} checkpoints and the best-scoring one are kept and
+ * older ones deleted. Whenever a checkpoint scores higher than all before it, and than the
+ * baseline score the manager was given, it is also written, the same way, to the best-model path
+ * that {@link Main#loadNetwork} and the UI read.
+ */
+public class CheckpointManager implements AutoCloseable {
+    private final Path _directory;  // Where the checkpoints are written
+    private final Path _bestPath;  // Holds the best checkpoint once one beats the baseline
+    private final int _keepLast;  // Most recent checkpoints kept besides the best
+    private final ExecutorService _writer;  // Single thread doing all file I/O, in submission order
+
+    // Only touched on the writer thread
+    private final List<Path> _kept = new ArrayList<>();  // Checkpoint files on disk, oldest first
+    private Path _best;  // Best checkpoint file, or null while none has beaten the baseline
+    private float _bestScore;  // Score of the best checkpoint, or the baseline score before one beats it
+
+    /**
+     * Creates a checkpoint manager whose first checkpoint always counts as the best so far.
+     *
+     * @param directory Directory the checkpoints are written to.
+     * @param keepLast Number of most recent checkpoints to keep besides the best; 0 keeps only the best.
+     * @param bestPath File the best checkpoint is also written to, e.g. {@code out/trained_network.ser}.
+     */
+    public CheckpointManager(String directory, int keepLast, String bestPath) {
+        this(directory, keepLast, bestPath, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * Creates a checkpoint manager, creating its directories if needed.
+     *
+     * @param directory Directory the checkpoints are written to.
+     * @param keepLast Number of most recent checkpoints to keep besides the best; 0 keeps only the best.
+     * @param bestPath File the best checkpoint is also written to, e.g. {@code out/trained_network.ser}.
+     * @param baselineScore Score a checkpoint must beat to become the best, e.g. the accuracy before
+     *                      training; the best-model path is not written until one does.
+     */
+    public CheckpointManager(String directory, int keepLast, String bestPath, float baselineScore) {
+        if (keepLast < 0) {
+            throw new IllegalArgumentException("Checkpoints to keep must not be negative, was " + keepLast);
+        }
+        _directory = Paths.get(directory);
+        _bestPath = Paths.get(bestPath);
+        _keepLast = keepLast;
+        _bestScore = baselineScore;
+
+        try {
+            Files.createDirectories(_directory);
+            Path parent = _bestPath.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to create checkpoint directory: " + e.getMessage(), e);
+        }
+
+        _writer = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "checkpoint-writer");
+            thread.setDaemon(true);  // close() waits for queued writes; nothing else should keep the JVM alive
+            return thread;
+        });
+    }
+
+    /**
+     * Queues a checkpoint and returns without waiting for it to be written.
+     *
+     * @param snapshot The weights to save.
+     * @param epoch The epoch the weights were taken after, used in the file name.
+     * @param score The checkpoint's score, higher is better, e.g. test accuracy.
+     */
+    public void save(NetworkSnapshot snapshot, int epoch, float score) {
+        _writer.execute(() -> write(snapshot, epoch, score));
+    }
+
+    /**
+     * Writes one checkpoint, updates the best model and applies the retention policy. Runs on the writer thread.
+     */
+    private void write(NetworkSnapshot snapshot, int epoch, float score) {
+        Path file = _directory.resolve(String.format("checkpoint_epoch%03d.ser", epoch));
+
+        try {
+            snapshot.write(file);
+            _kept.remove(file);  // Rewritten, e.g. by a run restarted in the same directory
+            _kept.add(file);
+
+            if (score > _bestScore) {
+                _bestScore = score;
+                _best = file;
+                snapshot.write(_bestPath);
+                System.out.println("Neural Network saved to " + _bestPath);
+            }
+
+            // Delete everything but the most recent checkpoints and the best
+            for (int i = _kept.size() - _keepLast - 1; i >= 0; i--) {
+                Path old = _kept.get(i);
+                if (!old.equals(_best)) {
+                    Files.deleteIfExists(old);
+                    _kept.remove(i);
+                }
+            }
+        } catch (Exception e) {
+            System.err.println("Error saving checkpoint: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Waits for every queued checkpoint to be written and stops the writer thread.
+     */
+    @Override
+    public void close() {
+        _writer.shutdown();
+        try {
+            _writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
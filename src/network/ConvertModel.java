@@ -0,0 +1,28 @@
+package network;
+
+import Layers.Precision;
+
+/**
+ * Converts a saved network to another precision, e.g. a double-trained model to float32 for serving.
+ * <p>
+ * Usage: {@code java network.ConvertModel <input.ser> <output.ser> [DOUBLE|FLOAT32]}; the precision defaults to FLOAT32.
+ */
+public class ConvertModel {
+
+    public static void main(String[] args) {
+        if (args.length < 2) {
+            System.err.println("Usage: ConvertModel <input.ser> <output.ser> [DOUBLE|FLOAT32]");
+            return;
+        }
+
+        Precision precision = args.length > 2 ? Precision.valueOf(args[2]) : Precision.FLOAT32;
+
+        NeuralNetwork network = Main.loadNetwork(args[0]);
+        if (network == null) {
+            return;  // loadNetwork has already reported the error
+        }
+
+        network.convertTo(precision);
+        Main.saveNetwork(network, args[1]);
+    }
+}
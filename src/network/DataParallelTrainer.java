@@ -0,0 +1,143 @@
+package network;
+
+import data.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Trains a {@link NeuralNetwork} on several cores with synchronous data parallelism.
+ * <p>
+ * Each mini-batch is cut into one contiguous shard per worker. Every worker runs its shard
+ * through its own {@link ExecutionContext}, so activations and gradients are never shared.
+ * Once all workers finish, their gradients are summed in worker order and applied in a single
+ * update. Shard boundaries and the summation order depend only on the batch and the thread
+ * count, so a run with the same data order and thread count gives bit-for-bit identical weights.
+ */
+public class DataParallelTrainer implements AutoCloseable {
+    private final NeuralNetwork _network;  // The network whose weights are trained
+    private final ForkJoinPool _pool;  // Workers running the shards
+    private final ExecutionContext[] _contexts;  // One replica of activations and gradients per worker
+
+    /**
+     * Creates a trainer for the given network.
+     *
+     * @param network The network to train.
+     * @param threads Number of worker threads, and the most shards a batch is split into.
+     */
+    public DataParallelTrainer(NeuralNetwork network, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1, was " + threads);
+        }
+        _network = network;
+        _pool = new ForkJoinPool(threads);
+        _contexts = new ExecutionContext[threads];
+        for (int i = 0; i < threads; i++) {
+            _contexts[i] = network.createContext();
+        }
+    }
+
+    /**
+     * Trains the network on the images in order, one synchronous weight update per mini-batch.
+     * With one thread this matches {@link NeuralNetwork#train(List, int)} exactly.
+     *
+     * @param images List of images to train the network on.
+     * @param batchSize Number of images per weight update.
+     */
+    public void train(List<Image> images, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, was " + batchSize);
+        }
+
+        for (int start = 0; start < images.size(); start += batchSize) {
+            int first = start;
+            trainBatch(Math.min(batchSize, images.size() - start),
+                    (context, i) -> _network.accumulateGradients(images.get(first + i), context));
+        }
+    }
+
+    /**
+     * Trains the network for one epoch of a data pipeline, one synchronous weight update per
+     * pipeline batch. The next batches are prepared in the background while the workers train.
+     *
+     * @param pipeline The pipeline to take {@link DataPipeline#getBatchesPerEpoch()} batches from.
+     */
+    public void train(DataPipeline pipeline) {
+        for (int b = 0; b < pipeline.getBatchesPerEpoch(); b++) {
+            DataPipeline.Batch batch = pipeline.next();
+            trainBatch(batch.size(), (context, i) -> _network.accumulateGradients(batch.input(i), batch.label(i), context));
+        }
+    }
+
+    /**
+     * Splits one batch across the workers, reduces their gradients in worker order and applies them.
+     * A batch that forms a single shard runs on the calling thread instead.
+     *
+     * @param count Number of images in the batch.
+     * @param accumulate Runs image i of the batch forward and backward in the given context.
+     */
+    private void trainBatch(int count, ObjIntConsumer<ExecutionContext> accumulate) {
+        int shardSize = (count + _contexts.length - 1) / _contexts.length;
+        int shards = (count + shardSize - 1) / shardSize;
+
+        if (shards == 1) {
+            // Nothing to share out, e.g. at batch size 1: handing the batch to a worker would only add a thread switch
+            for (int i = 0; i < count; i++) {
+                accumulate.accept(_contexts[0], i);
+            }
+            _contexts[0].applyGradients(1.0 / count);
+            return;
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>(shards);
+        for (int s = 0; s < shards; s++) {
+            ExecutionContext context = _contexts[s];
+            int from = s * shardSize;
+            int to = Math.min(from + shardSize, count);
+
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    accumulate.accept(context, i);
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> future : _pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while training", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Training worker failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+
+        // Fixed reduction order keeps the summed gradients identical from run to run
+        for (int s = 1; s < shards; s++) {
+            _contexts[s].mergeGradientsInto(_contexts[0]);
+        }
+        _contexts[0].applyGradients(1.0 / count);
+    }
+
+    /**
+     * @return The number of worker threads.
+     */
+    public int getThreads() {
+        return _contexts.length;
+    }
+
+    /**
+     * Shuts down the worker threads.
+     */
+    @Override
+    public void close() {
+        _pool.shutdown();
+    }
+}
@@ -0,0 +1,289 @@
+package network;
+
+import data.Image;
+import data.Tensor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Prepares training mini-batches on background threads so the threads doing forward and backward
+ * passes never stop to shuffle, normalize or augment images.
+ * <p>
+ * The images are reshuffled before every epoch, in the same way {@code Collections.shuffle} with
+ * the seeded random would. Each batch is then normalized, optionally augmented and packed into one
+ * contiguous (batchSize, 1, rows, columns) tensor by a worker thread. Up to {@code prefetch} batches
+ * are prepared ahead and handed out strictly in order, across epoch boundaries too, so the result
+ * does not depend on how the workers are scheduled. Batch buffers are recycled: a batch returned by
+ * {@link #next()} stays valid until the following call, and after warm-up no memory is allocated.
+ * <p>
+ * Only one thread may take batches. {@link #getStallNanos()} reports how long it has waited for
+ * data; if that grows, add workers or prefetch more.
+ */
+public class DataPipeline implements AutoCloseable {
+    private final List<Image> _images;  // Training images in their original order
+    private final int _batchSize;  // Images per batch; the last batch of an epoch may be smaller
+    private final double _scale;  // Value each pixel is multiplied by
+    private final int _rows;  // Pixel rows per image
+    private final int _columns;  // Pixel columns per image
+    private final long _seed;  // Seed for the shuffles and the per-image augmentation randoms
+    private final Augmentation _augmentation;  // Applied to each normalized image, or null
+    private final ExecutorService _workers;  // Threads preparing batches
+    private final ThreadLocal<Random> _randoms = ThreadLocal.withInitial(Random::new);  // Reseeded for every image
+
+    private final Random _shuffleRandom;  // Shuffles the images before each epoch
+    private final ArrayDeque<Future<Batch>> _ready = new ArrayDeque<>();  // Batches being prepared, in the order they are handed out
+    private final ArrayDeque<Batch> _free = new ArrayDeque<>();  // Buffers not in use
+    private List<Image> _order;  // Image order of the epoch currently being submitted
+    private long _submitted;  // Batches submitted since the pipeline started
+    private Batch _current;  // Batch last handed out, recycled on the next call
+    private long _stallNanos;  // Time the consumer spent waiting for a batch
+    private long _served;  // Batches handed out
+
+    /**
+     * Transforms one normalized image in place, e.g. to shift or distort it.
+     */
+    @FunctionalInterface
+    public interface Augmentation {
+        /**
+         * @param pixels Backing array holding the image.
+         * @param offset Index of the image's first pixel; pixels are stored row by row.
+         * @param rows Pixel rows.
+         * @param columns Pixel columns.
+         * @param random Source of randomness, seeded from the pipeline seed, the epoch and the image's
+         *               position, so the same seed gives the same augmentation on any number of threads.
+         */
+        void apply(double[] pixels, int offset, int rows, int columns, Random random);
+    }
+
+    /**
+     * Creates a pipeline without augmentation and starts preparing the first batches.
+     *
+     * @param images The training images; the list itself is not changed.
+     * @param batchSize Images per batch.
+     * @param scaleFactor Value each pixel is divided by, as in {@link NeuralNetwork}.
+     * @param workers Number of background threads.
+     * @param prefetch Number of batches prepared ahead of the consumer.
+     * @param seed Seed for the shuffles.
+     */
+    public DataPipeline(List<Image> images, int batchSize, double scaleFactor, int workers, int prefetch, long seed) {
+        this(images, batchSize, scaleFactor, workers, prefetch, seed, null);
+    }
+
+    /**
+     * Creates a pipeline and starts preparing the first batches.
+     *
+     * @param images The training images; the list itself is not changed.
+     * @param batchSize Images per batch.
+     * @param scaleFactor Value each pixel is divided by, as in {@link NeuralNetwork}.
+     * @param workers Number of background threads.
+     * @param prefetch Number of batches prepared ahead of the consumer.
+     * @param seed Seed for the shuffles and the augmentation.
+     * @param augmentation Applied to every image after normalization, or null for none.
+     */
+    public DataPipeline(List<Image> images, int batchSize, double scaleFactor, int workers, int prefetch, long seed,
+                        Augmentation augmentation) {
+        if (images.isEmpty()) {
+            throw new IllegalArgumentException("A pipeline needs at least one image");
+        }
+        if (batchSize < 1 || workers < 1 || prefetch < 1) {
+            throw new IllegalArgumentException("Batch size, workers and prefetch must be at least 1, were "
+                    + batchSize + ", " + workers + " and " + prefetch);
+        }
+
+        _images = new ArrayList<>(images);
+        _batchSize = batchSize;
+        _scale = 1.0 / scaleFactor;
+        _rows = images.get(0).getData().length;
+        _columns = images.get(0).getData()[0].length;
+        _seed = seed;
+        _augmentation = augmentation;
+        _shuffleRandom = new Random(seed);
+        _order = _images;
+        _workers = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "data-pipeline");
+            thread.setDaemon(true);  // Never keep the JVM alive for batches nobody will take
+            return thread;
+        });
+
+        for (int i = 0; i <= prefetch; i++) {
+            _free.add(new Batch(batchSize, _rows, _columns));
+        }
+        for (int i = 0; i < prefetch; i++) {
+            submit();
+        }
+    }
+
+    /**
+     * Takes the next batch, waiting only if the workers have fallen behind. Epochs follow each
+     * other without a gap; every {@link #getBatchesPerEpoch()} batches make up one epoch.
+     *
+     * @return The batch, valid until the next call.
+     */
+    public Batch next() {
+        if (_current != null) {
+            _free.add(_current);  // The caller is done with it
+            _current = null;
+        }
+        submit();  // Keep the queue full
+
+        Future<Batch> future = _ready.poll();
+        try {
+            if (future.isDone()) {
+                _current = future.get();
+            } else {
+                long start = System.nanoTime();
+                _current = future.get();
+                _stallNanos += System.nanoTime() - start;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a batch", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Data pipeline worker failed: " + e.getCause().getMessage(), e.getCause());
+        }
+
+        _served++;
+        return _current;
+    }
+
+    /**
+     * Queues the next batch in the stream, shuffling the images first if it starts a new epoch.
+     */
+    private void submit() {
+        int batchesPerEpoch = getBatchesPerEpoch();
+        int epoch = (int) (_submitted / batchesPerEpoch);
+        int start = (int) (_submitted % batchesPerEpoch) * _batchSize;
+
+        if (start == 0) {
+            List<Image> order = new ArrayList<>(_order);  // Batches of the last epoch may still be reading the old order
+            Collections.shuffle(order, _shuffleRandom);
+            _order = order;
+        }
+
+        List<Image> order = _order;
+        Batch batch = _free.poll();
+        int size = Math.min(_batchSize, order.size() - start);
+        _ready.add(_workers.submit(() -> fill(batch, order, start, size, epoch)));
+        _submitted++;
+    }
+
+    /**
+     * Normalizes, augments and packs one batch. Runs on a worker thread.
+     */
+    private Batch fill(Batch batch, List<Image> order, int start, int size, int epoch) {
+        double[] pixels = batch._inputs.getData();
+        int area = _rows * _columns;
+        Random random = _randoms.get();
+
+        for (int n = 0; n < size; n++) {
+            Image image = order.get(start + n);
+            int offset = n * area;
+            int i = offset;
+
+            for (double[] row : image.getData()) {
+                for (int c = 0; c < _columns; c++) {
+                    pixels[i++] = row[c] * _scale;  // Normalize the input data
+                }
+            }
+
+            if (_augmentation != null) {
+                random.setSeed(_seed + 0x9E3779B97F4A7C15L * ((long) epoch * _images.size() + start + n + 1));
+                _augmentation.apply(pixels, offset, _rows, _columns, random);
+            }
+            batch._labels[n] = image.getLabel();
+        }
+
+        batch._size = size;
+        batch._epoch = epoch;
+        return batch;
+    }
+
+    /**
+     * @return Number of batches in one epoch.
+     */
+    public int getBatchesPerEpoch() {
+        return (_images.size() + _batchSize - 1) / _batchSize;
+    }
+
+    /**
+     * @return Number of images in one epoch.
+     */
+    public int getImagesPerEpoch() {
+        return _images.size();
+    }
+
+    /**
+     * @return Total time {@link #next()} has spent waiting for the workers, in nanoseconds.
+     */
+    public long getStallNanos() {
+        return _stallNanos;
+    }
+
+    /**
+     * @return Number of batches handed out so far.
+     */
+    public long getBatchesServed() {
+        return _served;
+    }
+
+    /**
+     * Stops the worker threads. Batches still being prepared are abandoned.
+     */
+    @Override
+    public void close() {
+        _workers.shutdownNow();
+    }
+
+    /**
+     * One prepared mini-batch: normalized images packed back to back, with their labels.
+     */
+    public static final class Batch {
+        private final Tensor _inputs;  // Shape (capacity, 1, rows, columns); only the first size entries are valid
+        private final int[] _labels;  // Label of each image
+        private int _size;  // Images in this batch
+        private int _epoch;  // Epoch the batch belongs to, counting from 0
+
+        private Batch(int capacity, int rows, int columns) {
+            _inputs = new Tensor(capacity, 1, rows, columns);
+            _labels = new int[capacity];
+        }
+
+        /**
+         * @return Number of images in the batch.
+         */
+        public int size() {
+            return _size;
+        }
+
+        /**
+         * @param n Index of the image in the batch.
+         * @return A (1, rows, columns) view of the normalized image.
+         */
+        public Tensor input(int n) {
+            return _inputs.slice(n);
+        }
+
+        /**
+         * @param n Index of the image in the batch.
+         * @return The image's label.
+         */
+        public int label(int n) {
+            return _labels[n];
+        }
+
+        /**
+         * @return The epoch the batch belongs to, counting from 0.
+         */
+        public int epoch() {
+            return _epoch;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package network;
+
+import Layers.Layer;
+import Layers.LayerContext;
+import data.Tensor;
+
+import java.util.List;
+
+/**
+ * Per-thread working state for running a {@link NeuralNetwork}.
+ * <p>
+ * Holds one {@link LayerContext} per layer plus a reusable input buffer. The network's weights
+ * are shared and only read, so any number of threads can classify images with the same loaded
+ * model as long as each thread uses its own context.
+ */
+public class ExecutionContext {
+    private final List<Layer> _layers;  // Layers of the network this context belongs to
+    private final LayerContext[] _layerContexts;  // Working state for each layer, in network order
+    private Tensor _input;  // Normalized input buffer, reused while the image size stays the same
+    private Tensor _errors;  // Output-error buffer, reused for every training sample
+
+    ExecutionContext(List<Layer> layers) {
+        _layers = layers;
+        _layerContexts = new LayerContext[layers.size()];
+        for (int i = 0; i < layers.size(); i++) {
+            _layerContexts[i] = layers.get(i).createContext();
+        }
+    }
+
+    /**
+     * Copies the image into the input buffer, scaling each pixel as it goes.
+     *
+     * @param data Pixel data of the image.
+     * @param scale Value each pixel is multiplied by.
+     * @return The buffer holding the normalized image, of shape (1, rows, columns).
+     */
+    Tensor normalize(double[][] data, double scale) {
+        int rows = data.length;
+        int columns = data[0].length;
+        if (_input == null || _input.dim(1) != rows || _input.dim(2) != columns) {
+            _input = new Tensor(1, rows, columns);
+        }
+
+        double[] buffer = _input.getData();
+        int i = 0;
+        for (double[] row : data) {
+            for (int c = 0; c < columns; c++) {
+                buffer[i++] = row[c] * scale;
+            }
+        }
+        return _input;
+    }
+
+    /**
+     * @param length Number of network outputs.
+     * @return A buffer for the output errors, reused while the output length stays the same.
+     */
+    Tensor errorBuffer(int length) {
+        if (_errors == null || _errors.size() != length) {
+            _errors = new Tensor(length);
+        }
+        return _errors;
+    }
+
+    /**
+     * Runs the input through every layer using this context's buffers.
+     *
+     * @param input The input to the first layer.
+     * @return The output of the last layer, valid until the next call.
+     */
+    Tensor forward(Tensor input) {
+        Tensor output = input;
+        for (int i = 0; i < _layerContexts.length; i++) {
+            output = _layers.get(i).forward(output, _layerContexts[i]);
+        }
+        return output;
+    }
+
+    /**
+     * Backpropagates through every layer, adding each layer's weight gradients to this context.
+     *
+     * @param dLdO Gradient of the loss w.r.t. the network's output.
+     */
+    void backward(Tensor dLdO) {
+        Tensor gradient = dLdO;
+        for (int i = _layerContexts.length - 1; i >= 0; i--) {
+            gradient = _layers.get(i).backward(gradient, _layerContexts[i]);
+        }
+    }
+
+    /**
+     * Applies and clears the weight gradients accumulated since the last update.
+     *
+     * @param scale Factor applied to the gradients on top of each layer's learning rate.
+     */
+    void applyGradients(double scale) {
+        for (int i = 0; i < _layerContexts.length; i++) {
+            _layers.get(i).applyGradients(_layerContexts[i], scale);
+        }
+    }
+
+    /**
+     * Adds this context's accumulated weight gradients to another context of the same network
+     * and clears them here.
+     *
+     * @param target The context receiving the gradients.
+     */
+    void mergeGradientsInto(ExecutionContext target) {
+        for (int i = 0; i < _layerContexts.length; i++) {
+            _layerContexts[i].mergeGradientsInto(target._layerContexts[i]);
+        }
+    }
+}
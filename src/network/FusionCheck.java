@@ -0,0 +1,97 @@
+package network;
+
+import Layers.Precision;
+import data.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Trains the same network with and without fused convolution and pooling layers on synthetic
+ * 28x28 digits and prints the largest difference in predicted probabilities, for several pooling
+ * windows and steps and both precisions. Fusion must not change training, so every difference
+ * should be at rounding level; pooling steps above 1 cover the cells the pooling step skips.
+ * <p>
+ * Usage: {@code java -cp out network.FusionCheck [samples] [epochs]}
+ */
+public class FusionCheck {
+    private static final int[][] POOLS = {{3, 2}, {2, 2}, {3, 3}, {2, 1}};  // Pooling window and step sizes to check
+    private static final double DOUBLE_TOLERANCE = 1e-9;  // Largest difference accepted in double precision
+    private static final double FLOAT_TOLERANCE = 1e-5;  // Largest difference accepted in float32
+
+    public static void main(String[] args) {
+        long SEED = 123;
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int epochs = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        List<Image> images = syntheticImages(samples, SEED);
+        boolean passed = true;
+
+        System.out.printf("Samples: %d, epochs: %d%n", samples, epochs);
+        System.out.printf("%8s %6s %10s %12s%n", "window", "step", "precision", "max diff");
+
+        for (int[] pool : POOLS) {
+            for (Precision precision : Precision.values()) {
+                NeuralNetwork fused = buildNetwork(pool[0], pool[1], precision, true, SEED);
+                NeuralNetwork unfused = buildNetwork(pool[0], pool[1], precision, false, SEED);
+                for (int epoch = 0; epoch < epochs; epoch++) {
+                    fused.train(images);
+                    unfused.train(images);
+                }
+
+                float[][] fusedProbabilities = fused.predictProba(images);
+                float[][] unfusedProbabilities = unfused.predictProba(images);
+                double maxDiff = 0;
+                for (int n = 0; n < images.size(); n++) {
+                    for (int k = 0; k < fusedProbabilities[n].length; k++) {
+                        maxDiff = Math.max(maxDiff, Math.abs(fusedProbabilities[n][k] - unfusedProbabilities[n][k]));
+                    }
+                }
+
+                double tolerance = precision == Precision.FLOAT32 ? FLOAT_TOLERANCE : DOUBLE_TOLERANCE;
+                passed &= maxDiff <= tolerance;
+                System.out.printf("%8d %6d %10s %12.1e%s%n", pool[0], pool[1], precision, maxDiff,
+                        maxDiff <= tolerance ? "" : "  MISMATCH");
+            }
+        }
+
+        System.out.println(passed ? "Fused and unfused training agree" : "Fused and unfused training differ");
+    }
+
+    /**
+     * Builds Main's topology with the given pooling, fused or not.
+     */
+    private static NeuralNetwork buildNetwork(int windowSize, int stepSize, Precision precision, boolean fuse, long SEED) {
+        NetworkBuilder builder = new NetworkBuilder(28, 28, 256 * 100);
+        builder.addConvolutionLayer(8, 5, 1, 0.1, SEED);
+        builder.addMaxPoolLayer(windowSize, stepSize);
+        builder.addFullyConnectedLayer(10, 0.1, SEED);
+        builder.addSoftmaxCrossEntropyLayer();
+        builder.setPrecision(precision);
+        builder.setFusion(fuse);
+        return builder.buildNetwork();
+    }
+
+    /**
+     * @return Images with random strokes in the centre, some sparse and some dense so both convolution kernels run.
+     */
+    private static List<Image> syntheticImages(int samples, long SEED) {
+        Random random = new Random(SEED);
+        List<Image> images = new ArrayList<>(samples);
+
+        for (int n = 0; n < samples; n++) {
+            double[][] pixels = new double[28][28];
+            double density = n % 2 == 0 ? 0.1 : 0.6;
+            for (int r = 4; r < 24; r++) {
+                for (int c = 4; c < 24; c++) {
+                    if (random.nextDouble() < density) {
+                        pixels[r][c] = random.nextInt(256);
+                    }
+                }
+            }
+            images.add(new Image(pixels, random.nextInt(10)));
+        }
+
+        return images;
+    }
+}
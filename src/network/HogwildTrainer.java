@@ -0,0 +1,116 @@
+package network;
+
+import Layers.Layer;
+import Layers.SgdOptimizer;
+import data.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a {@link NeuralNetwork} on several cores without any synchronisation between workers
+ * (the Hogwild! scheme).
+ * <p>
+ * Each worker takes a contiguous share of the images and, for every image, runs forward and
+ * backward in its own {@link ExecutionContext} and writes the update straight into the shared
+ * weights. Workers read weights that others may be writing, so results vary from run to run;
+ * in exchange no worker ever waits for another. Updates are sparse: weights whose gradient is
+ * zero, such as fully connected rows fed by background pixels, are not written at all.
+ * <p>
+ * Only {@link SgdOptimizer} keeps that promise. Momentum and Adam move every weight on every
+ * update and keep per-weight state that the workers would corrupt by updating it at once, so
+ * networks using them are rejected.
+ */
+public class HogwildTrainer implements AutoCloseable {
+    private final NeuralNetwork _network;  // The network whose weights are trained
+    private final ForkJoinPool _pool;  // Workers running the shares
+    private final ExecutionContext[] _contexts;  // Per-worker activation and gradient state
+
+    /**
+     * Creates a trainer for the given network.
+     *
+     * @param network The network to train.
+     * @param threads Number of worker threads.
+     * @throws IllegalArgumentException If a layer uses an optimizer other than {@link SgdOptimizer}.
+     */
+    public HogwildTrainer(NeuralNetwork network, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1, was " + threads);
+        }
+        checkOptimizers(network);
+        _network = network;
+        _pool = new ForkJoinPool(threads);
+        _contexts = new ExecutionContext[threads];
+        for (int i = 0; i < threads; i++) {
+            _contexts[i] = network.createContext();
+        }
+    }
+
+    /**
+     * Trains the network on the images, updating the shared weights after every image.
+     *
+     * @param images List of images to train the network on.
+     * @throws IllegalArgumentException If a layer's optimizer has been changed to one other than {@link SgdOptimizer}.
+     */
+    public void train(List<Image> images) {
+        checkOptimizers(_network);  // The optimizer may have been switched since the trainer was created
+        int shareSize = (images.size() + _contexts.length - 1) / _contexts.length;
+        List<Callable<Void>> tasks = new ArrayList<>(_contexts.length);
+
+        for (int w = 0; w < _contexts.length && w * shareSize < images.size(); w++) {
+            ExecutionContext context = _contexts[w];
+            int from = w * shareSize;
+            int to = Math.min(from + shareSize, images.size());
+
+            tasks.add(() -> {
+                for (int i = from; i < to; i++) {
+                    _network.accumulateGradients(images.get(i), context);
+                    context.applyGradients(1.0);  // Racy, lock-free write into the shared weights
+                }
+                return null;
+            });
+        }
+
+        for (Future<Void> future : _pool.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while training", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Training worker failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Checks that every layer updates its weights with plain SGD, the only optimizer without per-weight state.
+     */
+    private static void checkOptimizers(NeuralNetwork network) {
+        for (Layer layer : network._layers) {
+            if (!(layer.getOptimizer() instanceof SgdOptimizer)) {
+                throw new IllegalArgumentException("Hogwild training needs plain SGD, but " + layer.getClass().getSimpleName()
+                        + " uses " + layer.getOptimizer().getClass().getSimpleName());
+            }
+        }
+    }
+
+    /**
+     * @return The number of worker threads.
+     */
+    public int getThreads() {
+        return _contexts.length;
+    }
+
+    /**
+     * Shuts down the worker threads.
+     */
+    @Override
+    public void close() {
+        _pool.shutdown();
+    }
+}
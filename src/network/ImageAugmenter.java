@@ -0,0 +1,265 @@
+package network;
+
+import java.util.Random;
+
+/**
+ * Randomly distorts training images as a {@link DataPipeline} prepares them, so the network sees
+ * digits shifted, rotated, resized, warped and drawn thicker or thinner than in MNIST, the way
+ * drawings and photographed digits arrive in production. Nothing is stored: every epoch draws new
+ * distortions from the pipeline's seeded random, so the same seed reproduces a run exactly.
+ * <p>
+ * Each image goes through three steps:
+ * <ol>
+ *     <li>Stroke-thickness jitter blends the image towards a dilated (thicker) or eroded (thinner) copy.</li>
+ *     <li>An elastic displacement field is drawn as uniform noise per pixel, smoothed with a Gaussian
+ *     and scaled, as in Simard et al. (2003).</li>
+ *     <li>Every output pixel is sampled bilinearly from the point the inverse affine transform, a
+ *     rotation and scale about the centre plus a shift, maps it to, moved by the displacement field.
+ *     Points outside the image read as background.</li>
+ * </ol>
+ * A range of zero turns a step off. Working buffers are kept per thread and reused, so pipeline
+ * workers can share one augmenter without allocating per image. Change the settings only before
+ * the augmenter is handed to a pipeline.
+ */
+public class ImageAugmenter implements DataPipeline.Augmentation {
+    private double _maxShift = 2;  // Largest shift in pixels, along each axis
+    private double _maxRotation = Math.toRadians(15);  // Largest rotation either way, in radians
+    private double _maxScale = 0.1;  // Largest relative change in size either way
+    private double _elasticAlpha = 20;  // Scale of the smoothed displacement field
+    private double _elasticSigma = 4;  // Smoothing of the displacement field, in pixels
+    private double _maxThickness = 0.5;  // Largest blend towards the dilated or eroded image
+
+    private double[] _kernel = gaussian(_elasticSigma);  // Normalized Gaussian smoothing the displacement field
+    private final ThreadLocal<Workspace> _workspaces = ThreadLocal.withInitial(Workspace::new);  // Buffers, one set per worker
+
+    /**
+     * Sets the largest shift along each axis.
+     *
+     * @param pixels Largest shift in pixels; 0 disables shifting.
+     */
+    public void setShift(double pixels) {
+        _maxShift = pixels;
+    }
+
+    /**
+     * Sets the largest rotation either way.
+     *
+     * @param degrees Largest rotation in degrees; 0 disables rotation.
+     */
+    public void setRotation(double degrees) {
+        _maxRotation = Math.toRadians(degrees);
+    }
+
+    /**
+     * Sets the largest change in size either way.
+     *
+     * @param fraction Largest relative change, e.g. 0.1 for 90% to 110%; 0 disables scaling.
+     */
+    public void setScale(double fraction) {
+        _maxScale = fraction;
+    }
+
+    /**
+     * Sets the strength and smoothness of the elastic distortion.
+     *
+     * @param alpha Scale of the smoothed displacement field; 0 disables the distortion.
+     * @param sigma Standard deviation of the smoothing in pixels; larger values give broader warps.
+     */
+    public void setElastic(double alpha, double sigma) {
+        if (sigma <= 0) {
+            throw new IllegalArgumentException("Elastic sigma must be positive, was " + sigma);
+        }
+        _elasticAlpha = alpha;
+        _elasticSigma = sigma;
+        _kernel = gaussian(sigma);
+    }
+
+    /**
+     * Sets how far strokes may be thickened or thinned.
+     *
+     * @param blend Largest blend towards the dilated or eroded image, from 0 (off) to 1.
+     */
+    public void setThickness(double blend) {
+        _maxThickness = blend;
+    }
+
+    @Override
+    public void apply(double[] pixels, int offset, int rows, int columns, Random random) {
+        Workspace workspace = _workspaces.get();
+        workspace.resize(rows * columns);
+        double[] source = workspace.source;
+        System.arraycopy(pixels, offset, source, 0, rows * columns);
+
+        // One draw per parameter in a fixed order, even for disabled steps, so each setting leaves the others' draws alone
+        double thickness = uniform(random, _maxThickness);
+        double angle = uniform(random, _maxRotation);
+        double scale = 1 + uniform(random, _maxScale);
+        double shiftRows = uniform(random, _maxShift);
+        double shiftColumns = uniform(random, _maxShift);
+
+        if (thickness != 0) {
+            thicken(source, rows, columns, thickness, workspace.morphed);
+        }
+
+        boolean elastic = _elasticAlpha != 0;
+        if (elastic) {
+            displacementField(random, rows, columns, workspace);
+        }
+
+        // Inverse of rotating by angle and scaling by scale about the centre
+        double cos = Math.cos(angle) / scale;
+        double sin = Math.sin(angle) / scale;
+        double centreRow = (rows - 1) / 2.0;
+        double centreColumn = (columns - 1) / 2.0;
+
+        for (int r = 0; r < rows; r++) {
+            double y = r - centreRow - shiftRows;
+
+            for (int c = 0; c < columns; c++) {
+                double x = c - centreColumn - shiftColumns;
+                double sourceRow = cos * y - sin * x + centreRow;
+                double sourceColumn = sin * y + cos * x + centreColumn;
+
+                if (elastic) {
+                    sourceRow += workspace.displacementRows[r * columns + c];
+                    sourceColumn += workspace.displacementColumns[r * columns + c];
+                }
+
+                pixels[offset + r * columns + c] = sample(source, rows, columns, sourceRow, sourceColumn);
+            }
+        }
+    }
+
+    /**
+     * @return A uniform value in [-range, range], or exactly 0 if the range is 0; one draw either way.
+     */
+    private static double uniform(Random random, double range) {
+        double u = random.nextDouble() * 2 - 1;
+        return range == 0 ? 0 : u * range;
+    }
+
+    /**
+     * Blends the image in place towards its 3x3-cross dilation (positive amount) or erosion (negative amount).
+     */
+    private static void thicken(double[] image, int rows, int columns, double amount, double[] morphed) {
+        boolean dilate = amount > 0;
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int i = r * columns + c;
+                double value = image[i];
+                // Neighbours outside the image count as background
+                value = extreme(value, r > 0 ? image[i - columns] : 0, dilate);
+                value = extreme(value, r < rows - 1 ? image[i + columns] : 0, dilate);
+                value = extreme(value, c > 0 ? image[i - 1] : 0, dilate);
+                value = extreme(value, c < columns - 1 ? image[i + 1] : 0, dilate);
+                morphed[i] = value;
+            }
+        }
+
+        double weight = Math.abs(amount);
+        for (int i = 0; i < rows * columns; i++) {
+            image[i] += weight * (morphed[i] - image[i]);
+        }
+    }
+
+    private static double extreme(double a, double b, boolean max) {
+        return max ? Math.max(a, b) : Math.min(a, b);
+    }
+
+    /**
+     * Fills the workspace's displacement fields with uniform noise, smooths them and scales them by alpha.
+     */
+    private void displacementField(Random random, int rows, int columns, Workspace workspace) {
+        for (int i = 0; i < rows * columns; i++) {
+            workspace.displacementRows[i] = random.nextDouble() * 2 - 1;
+            workspace.displacementColumns[i] = random.nextDouble() * 2 - 1;
+        }
+
+        smooth(workspace.displacementRows, rows, columns, workspace.morphed);
+        smooth(workspace.displacementColumns, rows, columns, workspace.morphed);
+    }
+
+    /**
+     * Applies the separable Gaussian to a field in place, scaled by alpha, treating values outside the image as zero.
+     */
+    private void smooth(double[] field, int rows, int columns, double[] temp) {
+        double[] kernel = _kernel;
+        int radius = kernel.length / 2;
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                double sum = 0;
+                for (int k = Math.max(-radius, -c); k <= Math.min(radius, columns - 1 - c); k++) {
+                    sum += kernel[k + radius] * field[r * columns + c + k];
+                }
+                temp[r * columns + c] = sum;
+            }
+        }
+
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                double sum = 0;
+                for (int k = Math.max(-radius, -r); k <= Math.min(radius, rows - 1 - r); k++) {
+                    sum += kernel[k + radius] * temp[(r + k) * columns + c];
+                }
+                field[r * columns + c] = _elasticAlpha * sum;
+            }
+        }
+    }
+
+    /**
+     * Reads the image at a fractional position by bilinear interpolation; points outside read as 0.
+     */
+    private static double sample(double[] image, int rows, int columns, double row, double column) {
+        int r0 = (int) Math.floor(row);
+        int c0 = (int) Math.floor(column);
+        double fr = row - r0;
+        double fc = column - c0;
+
+        return (1 - fr) * ((1 - fc) * pixel(image, rows, columns, r0, c0) + fc * pixel(image, rows, columns, r0, c0 + 1))
+                + fr * ((1 - fc) * pixel(image, rows, columns, r0 + 1, c0) + fc * pixel(image, rows, columns, r0 + 1, c0 + 1));
+    }
+
+    private static double pixel(double[] image, int rows, int columns, int r, int c) {
+        return r >= 0 && r < rows && c >= 0 && c < columns ? image[r * columns + c] : 0;
+    }
+
+    /**
+     * @return A Gaussian kernel of radius {@code ceil(3 * sigma)} whose weights sum to 1.
+     */
+    private static double[] gaussian(double sigma) {
+        int radius = (int) Math.ceil(3 * sigma);
+        double[] kernel = new double[2 * radius + 1];
+        double sum = 0;
+
+        for (int k = -radius; k <= radius; k++) {
+            kernel[k + radius] = Math.exp(-k * k / (2 * sigma * sigma));
+            sum += kernel[k + radius];
+        }
+        for (int k = 0; k < kernel.length; k++) {
+            kernel[k] /= sum;
+        }
+
+        return kernel;
+    }
+
+    /**
+     * Working buffers for one thread, grown to the largest image seen.
+     */
+    private static final class Workspace {
+        double[] source = new double[0];               // Copy of the image being transformed
+        double[] morphed = new double[0];              // Dilated or eroded image, then smoothing scratch
+        double[] displacementRows = new double[0];     // Elastic displacement along rows
+        double[] displacementColumns = new double[0];  // Elastic displacement along columns
+
+        void resize(int area) {
+            if (source.length < area) {
+                source = new double[area];
+                morphed = new double[area];
+                displacementRows = new double[area];
+                displacementColumns = new double[area];
+            }
+        }
+    }
+}
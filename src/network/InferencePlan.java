@@ -0,0 +1,124 @@
+package network;
+
+import Layers.InferenceOp;
+import data.Image;
+
+import java.util.List;
+
+/**
+ * A compiled, immutable inference copy of a {@link NeuralNetwork}, built by {@link NeuralNetwork#compile()}.
+ * <p>
+ * The layers become a flat array of {@link InferenceOp}s with their shapes worked out and their
+ * weights copied, and each thread gets activation buffers sized for those shapes up front. A
+ * prediction normalizes the image straight into the first buffer and runs the ops in one loop,
+ * each writing into the next buffer, so there is no recursion through the layers and no tensor
+ * views, casts or shape checks per image. Weights are kept in double whatever precision the
+ * network was trained in.
+ */
+public final class InferencePlan {
+    private final InferenceOp[] _ops;  // Compiled layers, in network order
+    private final double scaleFactor;   // Scale factor used for normalizing input data
+    private final int _inputElements;   // Pixels per image the plan was compiled for
+    private final ThreadLocal<Workspace> _workspaces = ThreadLocal.withInitial(this::createWorkspace);  // Buffers, one set per calling thread
+
+    InferencePlan(InferenceOp[] ops, double scaleFactor) {
+        _ops = ops;
+        this.scaleFactor = scaleFactor;
+        _inputElements = ops[0].getInputElements();
+    }
+
+    /**
+     * Computes the network's output scores for an image, which are class probabilities if the
+     * network ends in a softmax layer. Safe to call from several threads at once.
+     *
+     * @param image The image to classify.
+     * @return The scores, held in a per-thread buffer until the calling thread's next call.
+     */
+    public double[] scores(Image image) {
+        Workspace workspace = _workspaces.get();
+        double[][] activations = workspace.activations;
+        double[] input = activations[0];
+        double scale = 1.0 / scaleFactor;
+        double[][] pixels = image.getData();
+
+        if (pixels.length * pixels[0].length != _inputElements) {
+            throw new IllegalArgumentException("Expected an image with " + _inputElements + " pixels but got "
+                    + pixels.length + "x" + pixels[0].length);
+        }
+
+        int i = 0;
+        for (double[] row : pixels) {
+            for (double pixel : row) {
+                input[i++] = pixel * scale;  // Normalize the input data
+            }
+        }
+
+        InferenceOp[] ops = _ops;
+        double[] scratch = workspace.scratch;
+        for (int l = 0; l < ops.length; l++) {
+            ops[l].run(activations[l], activations[l + 1], scratch);
+        }
+
+        return activations[ops.length];
+    }
+
+    /**
+     * Makes a prediction (guess) based on the input image. Safe to call from several threads at once.
+     *
+     * @param image The input image to be classified.
+     * @return The predicted label for the image.
+     */
+    public int guess(Image image) {
+        double[] scores = scores(image);
+        int index = 0;
+
+        for (int j = 1; j < scores.length; j++) {
+            if (scores[j] > scores[index]) {
+                index = j;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Tests the plan on a set of images and calculates the accuracy.
+     *
+     * @param images List of images to test the plan on.
+     * @return The fraction of images classified correctly.
+     */
+    public float test(List<Image> images) {
+        int correct = 0;
+
+        for (Image image : images) {
+            if (guess(image) == image.getLabel()) {
+                correct++;
+            }
+        }
+
+        return (float) correct / images.size();
+    }
+
+    private Workspace createWorkspace() {
+        Workspace workspace = new Workspace();
+        workspace.activations = new double[_ops.length + 1][];
+        workspace.activations[0] = new double[_inputElements];
+        int largestScratch = 0;
+
+        for (int l = 0; l < _ops.length; l++) {
+            workspace.activations[l + 1] = new double[_ops[l].getOutputElements()];
+            largestScratch = Math.max(largestScratch, _ops[l].getScratchLength());
+        }
+
+        workspace.scratch = new double[largestScratch];
+        return workspace;
+    }
+
+    /**
+     * Activation buffers for one thread.
+     */
+    private static final class Workspace {
+        double[][] activations;  // Input of each op, then the plan's output
+        double[] scratch;        // Working space for the op being run
+    }
+}
@@ -5,13 +5,9 @@ import data.Image;
 import product.UserCorrectionStore;
 
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.List;
 
-import static java.util.Collections.shuffle;
-
 public class Main {
 
     public static void main(String[] args) {
@@ -41,10 +37,12 @@ public class Main {
         System.out.println("Images Test Size: " + imagesTest.size());
 
         // Build the neural network
-        NetworkBuilder builder = new NetworkBuilder(28, 28, 256 * 100 );
+        double scaleFactor = 256 * 100; // Pixels are divided by this before entering the network
+        NetworkBuilder builder = new NetworkBuilder(28, 28, scaleFactor);
         builder.addConvolutionLayer(8,5, 1, 0.1, SEED);
         builder.addMaxPoolLayer(3, 2);
         builder.addFullyConnectedLayer(10, 0.1, SEED);
+        builder.addSoftmaxCrossEntropyLayer();
 
         NeuralNetwork network = builder.buildNetwork();
 
@@ -56,38 +54,64 @@ public class Main {
         // Train the network for a specified number of epochs
         // Early stopping parameters
         int epochs = 5; // Maximum number of epochs to run
+        int batchSize = 1; // Images per weight update; 1 updates the weights after every image
+        int threads = Runtime.getRuntime().availableProcessors(); // Workers sharing each batch; needs batchSize > 1 to help
+        int loaders = 2; // Background threads shuffling, normalizing and augmenting the next batches
+        ImageAugmenter augmenter = new ImageAugmenter(); // Shifts, rotates, warps and re-strokes digits like production drawings
+        int prefetch = 256; // Batches prepared ahead of training
+        int evaluators = Math.max(1, threads / 4); // Threads testing each epoch's weights while the next epoch trains
         int patience = 5; // Number of epochs to wait for an improvement before stopping
         int epochsWithoutImprovement = 0; // Counter for epochs without improvement
+        boolean stopping = false; // Set once early stopping triggers; the epoch already trained is still evaluated
+        int keepCheckpoints = 3; // Most recent epoch checkpoints kept in out/checkpoints besides the best
 
         // Training loop with early stopping
-        for (int i = 0; i < epochs; i++) {
-            shuffle(imagesTrain);  // Shuffle the training data before each epoch
-            network.train(imagesTrain);  // Train the network on the shuffled data
-            float currentRate = network.test(imagesTest);  // Test the network after training
-            System.out.println("Success Rate after round " + i + ": " + currentRate);
-
-            // Check if the current model is the best so far
-            if (currentRate > bestRate) {
-                bestRate = currentRate;
-                epochsWithoutImprovement = 0;  // Reset the counter
-                saveNetwork(network, "out/trained_network.ser");  // Save the best network
-                System.out.println("New best success rate: " + bestRate + ". Model saved.");
-            } else {
-                epochsWithoutImprovement++;
-                if (epochsWithoutImprovement >= patience) {
-                    System.out.println("Early stopping triggered. Training stopped.");
-                    break;  // Exit the training loop
+        // The pipeline reshuffles before each epoch, seeded so a run with the same thread count is reproducible.
+        // Each epoch's weights are tested while the next epoch trains, so early stopping and saving act one epoch late.
+        // Checkpoints are written on a background thread; one that beats bestRate is also written to out/trained_network.ser.
+        // The manager starts from the pre-training rate, so it picks the same best model as the loop below.
+        try (CheckpointManager checkpoints = new CheckpointManager("out/checkpoints", keepCheckpoints, "out/trained_network.ser", bestRate);
+             DataParallelTrainer trainer = new DataParallelTrainer(network, threads);
+             DataPipeline pipeline = new DataPipeline(imagesTrain, batchSize, scaleFactor, loaders, prefetch, SEED, augmenter);
+             AsyncEvaluator evaluator = new AsyncEvaluator(imagesTest, evaluators)) {
+            AsyncEvaluator.Evaluation pending = null; // Test of the previous epoch, running while this one trains
+
+            for (int i = 0; i == 0 || pending != null; i++) {
+                AsyncEvaluator.Evaluation next = null;
+                if (i < epochs && !stopping) {
+                    long stalled = pipeline.getStallNanos();
+                    trainer.train(pipeline);  // Train the network on one shuffled epoch
+                    System.out.printf("Training waited %.1f ms for input data%n", (pipeline.getStallNanos() - stalled) / 1e6);
+                    next = evaluator.evaluate(network.snapshot());  // Test a copy of the weights in the background
+                }
+
+                if (pending != null) {
+                    float currentRate = pending.accuracy();  // Normally finished while this epoch trained
+                    System.out.println("Success Rate after round " + (i - 1) + ": " + currentRate);
+                    checkpoints.save(pending.snapshot(), i - 1, currentRate);  // Written in the background
+
+                    // Check if the tested model is the best so far
+                    if (currentRate > bestRate) {
+                        bestRate = currentRate;
+                        epochsWithoutImprovement = 0;  // Reset the counter
+                        System.out.println("New best success rate: " + bestRate + ". Model saving in the background.");
+                    } else {
+                        epochsWithoutImprovement++;
+                        if (epochsWithoutImprovement >= patience && !stopping) {
+                            System.out.println("Early stopping triggered. Training stopped.");
+                            stopping = true;  // Train no further epochs
+                        }
+                    }
                 }
+                pending = next;
             }
         }
     }
 
-    // Method to save the trained network to a file
+    // Method to save the trained network to a file, replacing it atomically so a crash never leaves it half written
     public static void saveNetwork(NeuralNetwork network, String filepath) {
-        try (FileOutputStream fileOut = new FileOutputStream(filepath);
-             ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
-            out.writeObject(network);
-            System.out.println("Neural Network saved to " + filepath);
+        try {
+            network.snapshot().save(filepath);
         } catch (Exception e) {
             System.err.println("Error saving neural network: " + e.getMessage());
             e.printStackTrace();
@@ -1,9 +1,16 @@
 package network;
 
+import Layers.AveragePoolLayer;
 import Layers.ConvolutionLayer;
+import Layers.ConvolutionPoolLayer;
+import Layers.DepthwiseSeparableConvolutionLayer;
 import Layers.FullyConnectedLayer;
 import Layers.Layer;
 import Layers.MaxPoolLayer;
+import Layers.Optimizer;
+import Layers.Precision;
+import Layers.SgdOptimizer;
+import Layers.SoftmaxCrossEntropyLayer;
 
 import java.io.Serializable;
 import java.util.ArrayList;
@@ -15,6 +22,9 @@ public class NetworkBuilder implements Serializable {
     private int _inputRows;  // Number of rows in the input data
     private int _inputColumns;  // Number of columns in the input data
     private double _scaleFactor;  // Scale factor for normalizing input data
+    private Precision _precision = Precision.DOUBLE;  // Precision the built network computes in
+    private boolean _fuse = true;  // Whether to fuse each convolution with a max-pooling layer that follows it
+    private Optimizer _optimizer = new SgdOptimizer();  // Optimizer each weighted layer gets a copy of
     List<Layer> _layers;  // List to hold the layers of the network
 
     /**
@@ -32,7 +42,7 @@ public class NetworkBuilder implements Serializable {
     }
 
     /**
-     * Adds a Convolutional Layer to the network.
+     * Adds a Convolutional Layer to the network that only places filters fully inside its input.
      *
      * @param numFilters Number of filters to use in the convolutional layer.
      * @param filterSize Size of each filter (assumed to be square).
@@ -41,14 +51,31 @@ public class NetworkBuilder implements Serializable {
      * @param SEED Random seed for initializing weights.
      */
     public void addConvolutionLayer(int numFilters, int filterSize, int stepSize, double learningRate, long SEED) {
+        addConvolutionLayer(numFilters, filterSize, stepSize, ConvolutionLayer.VALID, learningRate, SEED);
+    }
+
+    /**
+     * Adds a Convolutional Layer to the network that pads its input with zeros.
+     *
+     * @param numFilters Number of filters to use in the convolutional layer.
+     * @param filterSize Size of each filter (assumed to be square).
+     * @param stepSize Step size for the convolution operation.
+     * @param padding Zero rows and columns on each side of the input, or {@link ConvolutionLayer#VALID} or {@link ConvolutionLayer#SAME}.
+     * @param learningRate Learning rate for the layer.
+     * @param SEED Random seed for initializing weights.
+     * @throws IllegalArgumentException If the padding is invalid or the filters do not fit the padded input, or a softmax layer was already added.
+     */
+    public void addConvolutionLayer(int numFilters, int filterSize, int stepSize, int padding, double learningRate, long SEED) {
+        checkWindow("Convolutional Layer", filterSize, stepSize, ConvolutionLayer.resolvePadding(padding, filterSize));
+
         try {
             if (_layers.isEmpty()) {
                 // First layer, no previous layer exists
-                _layers.add(new ConvolutionLayer(filterSize, stepSize, 1, _inputRows, _inputColumns, SEED, numFilters, learningRate));
+                _layers.add(new ConvolutionLayer(filterSize, stepSize, padding, 1, _inputRows, _inputColumns, SEED, numFilters, learningRate));
             } else {
                 // Add convolutional layer after existing layers
                 Layer previous = _layers.get(_layers.size() - 1);
-                _layers.add(new ConvolutionLayer(filterSize, stepSize, previous.getOutputLength(), previous.getOutputRows(), previous.getOutputColumns(), SEED, numFilters, learningRate));
+                _layers.add(new ConvolutionLayer(filterSize, stepSize, padding, previous.getOutputLength(), previous.getOutputRows(), previous.getOutputColumns(), SEED, numFilters, learningRate));
             }
         } catch (Exception e) {
             System.err.println("Error adding Convolutional Layer: " + e.getMessage());
@@ -56,6 +83,34 @@ public class NetworkBuilder implements Serializable {
         }
     }
 
+    /**
+     * Adds a Depthwise-Separable Convolutional Layer to the network: one filter per input channel,
+     * then a 1x1 convolution mixing the channels into {@code numFilters} outputs.
+     *
+     * @param numFilters Number of output channels.
+     * @param filterSize Size of each depthwise filter (assumed to be square).
+     * @param stepSize Step size for the depthwise convolution.
+     * @param learningRate Learning rate for the layer.
+     * @param SEED Random seed for initializing weights.
+     */
+    public void addDepthwiseSeparableConvolutionLayer(int numFilters, int filterSize, int stepSize, double learningRate, long SEED) {
+        checkWindow("Depthwise-Separable Convolutional Layer", filterSize, stepSize, 0);
+
+        try {
+            if (_layers.isEmpty()) {
+                // First layer, no previous layer exists
+                _layers.add(new DepthwiseSeparableConvolutionLayer(filterSize, stepSize, 1, _inputRows, _inputColumns, SEED, numFilters, learningRate));
+            } else {
+                // Add depthwise-separable layer after existing layers
+                Layer previous = _layers.get(_layers.size() - 1);
+                _layers.add(new DepthwiseSeparableConvolutionLayer(filterSize, stepSize, previous.getOutputLength(), previous.getOutputRows(), previous.getOutputColumns(), SEED, numFilters, learningRate));
+            }
+        } catch (Exception e) {
+            System.err.println("Error adding Depthwise-Separable Convolutional Layer: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Adds a Max Pooling Layer to the network.
      *
@@ -63,6 +118,8 @@ public class NetworkBuilder implements Serializable {
      * @param stepSize Step size for the pooling operation.
      */
     public void addMaxPoolLayer(int windowSize, int stepSize) {
+        checkWindow("Max Pooling Layer", windowSize, stepSize, 0);
+
         try {
             if (_layers.isEmpty()) {
                 // First layer, no previous layer exists
@@ -78,6 +135,52 @@ public class NetworkBuilder implements Serializable {
         }
     }
 
+    /**
+     * Adds an Average Pooling Layer to the network.
+     *
+     * @param windowSize Size of the pooling window.
+     * @param stepSize Step size for the pooling operation.
+     */
+    public void addAveragePoolLayer(int windowSize, int stepSize) {
+        checkWindow("Average Pooling Layer", windowSize, stepSize, 0);
+
+        try {
+            if (_layers.isEmpty()) {
+                // First layer, no previous layer exists
+                _layers.add(new AveragePoolLayer(stepSize, windowSize, 1, _inputRows, _inputColumns));
+            } else {
+                // Add average pooling layer after existing layers
+                Layer previous = _layers.get(_layers.size() - 1);
+                _layers.add(new AveragePoolLayer(stepSize, windowSize, previous.getOutputLength(), previous.getOutputRows(), previous.getOutputColumns()));
+            }
+        } catch (Exception e) {
+            System.err.println("Error adding Average Pooling Layer: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Adds a Global Average Pooling Layer to the network, averaging each channel to a single value.
+     * Placed before the fully connected layer, it shrinks that layer's weights to one per channel and class.
+     */
+    public void addGlobalAveragePoolLayer() {
+        checkNotAfterOutput("Global Average Pooling Layer");
+
+        try {
+            if (_layers.isEmpty()) {
+                // First layer, no previous layer exists
+                _layers.add(new AveragePoolLayer(1, _inputRows, _inputColumns));
+            } else {
+                // Add global average pooling layer after existing layers
+                Layer previous = _layers.get(_layers.size() - 1);
+                _layers.add(new AveragePoolLayer(previous.getOutputLength(), previous.getOutputRows(), previous.getOutputColumns()));
+            }
+        } catch (Exception e) {
+            System.err.println("Error adding Global Average Pooling Layer: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Adds a Fully Connected Layer to the network.
      *
@@ -86,6 +189,8 @@ public class NetworkBuilder implements Serializable {
      * @param SEED Random seed for initializing weights.
      */
     public void addFullyConnectedLayer(int outLength, double learningRate, long SEED) {
+        checkNotAfterOutput("Fully Connected Layer");
+
         try {
             if (_layers.isEmpty()) {
                 // First layer, fully connected directly to input
@@ -101,13 +206,122 @@ public class NetworkBuilder implements Serializable {
         }
     }
 
+    /**
+     * Adds a softmax output layer, so the network is trained against the cross-entropy loss and
+     * outputs class probabilities. It must be the last layer added: every add method, and
+     * {@link #buildNetwork()}, rejects layers after it. A fully connected layer directly before it
+     * is switched to output its weighted sums without the ReLU.
+     *
+     * @throws IllegalArgumentException If a softmax layer has already been added.
+     */
+    public void addSoftmaxCrossEntropyLayer() {
+        checkNotAfterOutput("Softmax Cross-Entropy Layer");
+
+        try {
+            if (_layers.isEmpty()) {
+                _layers.add(new SoftmaxCrossEntropyLayer(_inputColumns * _inputRows));
+            } else {
+                Layer previous = _layers.get(_layers.size() - 1);
+                if (previous instanceof FullyConnectedLayer fullyConnected) {
+                    fullyConnected.setLinear(true);
+                }
+                _layers.add(new SoftmaxCrossEntropyLayer(previous.getOutputElements()));
+            }
+        } catch (Exception e) {
+            System.err.println("Error adding Softmax Cross-Entropy Layer: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Checks that no output layer has been added yet, since a softmax layer's loss and backward
+     * pass are only correct when it is the last layer.
+     *
+     * @param layerName Name of the layer being added, for the error message.
+     * @throws IllegalArgumentException If the last layer added is a softmax layer.
+     */
+    private void checkNotAfterOutput(String layerName) {
+        if (!_layers.isEmpty() && _layers.get(_layers.size() - 1) instanceof SoftmaxCrossEntropyLayer) {
+            throw new IllegalArgumentException(layerName + " cannot be added after the Softmax Cross-Entropy Layer, which must be last");
+        }
+    }
+
+    /**
+     * Checks that a sliding window fits the output of the last layer added, so every layer after
+     * it gets an input of at least one row and column.
+     *
+     * @param layerName Name of the layer being added, for the error message.
+     * @param windowSize Size of the filter or pooling window.
+     * @param stepSize Step size of the window.
+     * @param padding Zero rows and columns on each side of the input.
+     * @throws IllegalArgumentException If the window does not fit or a softmax layer was already added.
+     */
+    private void checkWindow(String layerName, int windowSize, int stepSize, int padding) {
+        checkNotAfterOutput(layerName);
+        Layer previous = _layers.isEmpty() ? null : _layers.get(_layers.size() - 1);
+        int rows = previous == null ? _inputRows : previous.getOutputRows();
+        int columns = previous == null ? _inputColumns : previous.getOutputColumns();
+
+        if (windowSize < 1 || stepSize < 1) {
+            throw new IllegalArgumentException(layerName + " needs a window and step size of at least 1, was "
+                    + windowSize + " and " + stepSize);
+        }
+        if (rows + 2 * padding < windowSize || columns + 2 * padding < windowSize) {
+            throw new IllegalArgumentException(layerName + " window of " + windowSize + " does not fit its "
+                    + rows + "x" + columns + " input" + (padding > 0 ? " padded by " + padding : ""));
+        }
+    }
+
+    /**
+     * Sets the precision the built network stores its weights in and computes with. Weights are
+     * drawn exactly as in double mode and then rounded, so the same seeds give comparable networks.
+     *
+     * @param precision The precision for every layer.
+     */
+    public void setPrecision(Precision precision) {
+        _precision = precision;
+    }
+
+    /**
+     * Sets whether {@link #buildNetwork()} fuses each convolution layer directly followed by a
+     * max-pooling layer into one {@link ConvolutionPoolLayer}. Fused layers compute the same values
+     * without storing the convolution output. On by default.
+     *
+     * @param fuse Whether to fuse.
+     */
+    public void setFusion(boolean fuse) {
+        _fuse = fuse;
+    }
+
+    /**
+     * Sets how the built network turns gradients into weight updates: {@link SgdOptimizer} (the
+     * default), {@link Layers.MomentumOptimizer} with or without Nesterov's correction, or
+     * {@link Layers.AdamOptimizer}. Every layer gets its own copy with its own state and keeps the
+     * learning rate it was added with.
+     *
+     * @param optimizer The optimizer for every layer.
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        _optimizer = optimizer;
+    }
+
     /**
      * Builds and returns the final NeuralNetwork object.
      *
      * @return The constructed NeuralNetwork object.
+     * @throws IllegalArgumentException If a softmax layer is followed by other layers.
      */
     public NeuralNetwork buildNetwork() {
-            network = new NeuralNetwork(_layers, _scaleFactor);
+            for (int i = 0; i < _layers.size() - 1; i++) {
+                if (_layers.get(i) instanceof SoftmaxCrossEntropyLayer) {
+                    throw new IllegalArgumentException("The Softmax Cross-Entropy Layer must be the last layer, but "
+                            + (_layers.size() - 1 - i) + " layer(s) follow it");
+                }
+            }
+
+            network = new NeuralNetwork(_fuse ? ConvolutionPoolLayer.fuse(_layers) : _layers, _scaleFactor);
+            network.convertTo(_precision);
+            network.setOptimizer(_optimizer);
             return network;
     }
 }
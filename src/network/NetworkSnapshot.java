@@ -0,0 +1,105 @@
+package network;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A frozen copy of a {@link NeuralNetwork}'s weights, taken by {@link NeuralNetwork#snapshot()}.
+ * <p>
+ * The network is serialized into a byte buffer in the same format {@link Main#saveNetwork} writes,
+ * so taking a snapshot costs one pass over the weights and no file I/O. Training can go on changing
+ * the network while other threads restore, evaluate or save the snapshot, which never changes.
+ */
+public final class NetworkSnapshot {
+    private final byte[] _bytes;  // The serialized network
+
+    NetworkSnapshot(NeuralNetwork network) {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(network);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to snapshot the network: " + e.getMessage(), e);
+        }
+        _bytes = buffer.toByteArray();
+    }
+
+    /**
+     * Rebuilds an independent network from the snapshot. Safe to call from several threads at once.
+     *
+     * @return A new network with the weights the snapshot was taken with.
+     */
+    public NeuralNetwork restore() {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(_bytes))) {
+            return (NeuralNetwork) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            throw new IllegalStateException("Unable to restore the network snapshot: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to a file that {@link Main#loadNetwork} can read. The file is replaced
+     * atomically, so a crash while saving leaves the previous model intact.
+     *
+     * @param filepath The file to write.
+     */
+    public void save(String filepath) {
+        try {
+            write(Paths.get(filepath));
+            System.out.println("Neural Network saved to " + filepath);
+        } catch (Exception e) {
+            System.err.println("Error saving neural network: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the snapshot to a temporary file next to the target, forces it to disk and renames it
+     * over the target, so readers see either the old file or the complete new one.
+     *
+     * @param target The file to write.
+     * @throws IOException If the file cannot be written; the target is then left unchanged.
+     */
+    void write(Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(_bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);  // The contents must be on disk before the rename makes them visible
+            }
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        // Persist the rename itself; not every platform can open a directory for this
+        Path directory = target.toAbsolutePath().getParent();
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // The file is complete either way; only the rename may be lost on a power failure
+        }
+    }
+
+    /**
+     * @return Size of the serialized network in bytes.
+     */
+    public int size() {
+        return _bytes.length;
+    }
+}
@@ -1,23 +1,33 @@
 package network;
 
+import Layers.ConvolutionPoolLayer;
+import Layers.FullyConnectedLayer;
+import Layers.InferenceOp;
 import Layers.Layer;
+import Layers.Optimizer;
+import Layers.Precision;
+import Layers.SoftmaxCrossEntropyLayer;
 import data.Image;
+import data.Tensor;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
-import static data.MatrixUtility.add;
-import static data.MatrixUtility.multiply;
-
 public class NeuralNetwork implements Serializable {
     @Serial
     private static final long serialVersionUID = 1L;
+    static final int INFERENCE_BATCH_SIZE = 64;  // Images stacked into one tensor by the batched inference methods
+
     List<Layer> _layers;  // List of layers in the neural network
     double scaleFactor;    // Scale factor used for normalizing input data
 
+    private transient ThreadLocal<ExecutionContext> _threadContexts;  // Working state for guess(), one per calling thread
+
     /**
      * Constructor to initialize the NeuralNetwork with a list of layers and a scale factor.
      *
@@ -28,6 +38,89 @@ public class NeuralNetwork implements Serializable {
         this._layers = _layers;
         this.scaleFactor = scaleFactor;
         linkLayers();  // Link the layers together to form the network
+        _threadContexts = ThreadLocal.withInitial(this::createContext);
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _threadContexts = ThreadLocal.withInitial(this::createContext);
+    }
+
+    /**
+     * Creates working state for running this network on one thread. The weights are not copied.
+     *
+     * @return A new execution context.
+     */
+    public ExecutionContext createContext() {
+        return new ExecutionContext(_layers);
+    }
+
+    /**
+     * Converts every layer's weights to another precision, e.g. to serve a double-trained model in float32.
+     * Execution contexts created before the conversion must not be used afterwards.
+     *
+     * @param precision The precision to convert to.
+     */
+    public void convertTo(Precision precision) {
+        for (Layer layer : _layers) {
+            layer.convertTo(precision);
+        }
+        _threadContexts = ThreadLocal.withInitial(this::createContext);
+    }
+
+    /**
+     * Sets how every layer turns gradients into weight updates, e.g. to fine-tune a loaded model
+     * with another optimizer. Each layer gets its own copy with empty state.
+     *
+     * @param optimizer The optimizer for every layer.
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        for (Layer layer : _layers) {
+            layer.setOptimizer(optimizer);
+        }
+    }
+
+    /**
+     * Prunes every fully connected layer to the given sparsity, see {@link FullyConnectedLayer#prune}.
+     * Training afterwards fine-tunes the kept weights only. Execution contexts created before
+     * pruning must not be used afterwards.
+     *
+     * @param sparsity Fraction of each layer's weights to remove, from 0 to 1.
+     */
+    public void prune(double sparsity) {
+        for (Layer layer : _layers) {
+            if (layer instanceof FullyConnectedLayer fullyConnected) {
+                fullyConnected.prune(sparsity);
+            }
+        }
+        _threadContexts = ThreadLocal.withInitial(this::createContext);
+    }
+
+    /**
+     * Copies the network's current weights into an immutable snapshot, e.g. to evaluate or save
+     * them on another thread while training goes on. Do not call it while the network is training.
+     *
+     * @return The snapshot.
+     */
+    public NetworkSnapshot snapshot() {
+        return new NetworkSnapshot(this);
+    }
+
+    /**
+     * Compiles the network into a flat inference plan for serving single images. The plan copies
+     * the weights, so training the network afterwards does not change it. Convolution and pooling
+     * layers are fused in the plan even if the network was built or saved without fusion.
+     *
+     * @return The compiled plan.
+     */
+    public InferencePlan compile() {
+        List<Layer> layers = ConvolutionPoolLayer.fuse(ConvolutionPoolLayer.unfuse(_layers));
+        InferenceOp[] ops = new InferenceOp[layers.size()];
+        for (int l = 0; l < ops.length; l++) {
+            ops[l] = layers.get(l).compile();
+        }
+        return new InferencePlan(ops, scaleFactor);
     }
 
     /**
@@ -60,33 +153,49 @@ public class NeuralNetwork implements Serializable {
 
     /**
      * Calculates the error between the network's output and the correct answer.
+     * When the network ends in a {@link SoftmaxCrossEntropyLayer} the output holds probabilities
+     * and the errors are the cross-entropy gradient w.r.t. the scores that layer normalizes.
      *
-     * @param networkOutput Array of outputs from the network.
+     * @param networkOutput Outputs from the network.
      * @param correctAnswer The correct label for the input data.
-     * @return Array of error values.
+     * @return Error values, one per class.
      */
-    public double[] getErrors(double[] networkOutput, int correctAnswer) {
-        int numClasses = networkOutput.length;
+    public Tensor getErrors(Tensor networkOutput, int correctAnswer) {
+        return getErrors(networkOutput, correctAnswer, new Tensor(networkOutput.size()));
+    }
 
-        double[] expected = new double[numClasses];
-        expected[correctAnswer] = 1;  // Set the correct class to 1
+    /**
+     * Calculates the error between the network's output and the correct answer into an existing buffer.
+     *
+     * @param networkOutput Outputs from the network.
+     * @param correctAnswer The correct label for the input data.
+     * @param errors Receives the error values, one per class.
+     * @return The {@code errors} buffer.
+     */
+    public Tensor getErrors(Tensor networkOutput, int correctAnswer, Tensor errors) {
+        int numClasses = networkOutput.size();
 
-        return add(networkOutput, multiply(expected, -1));  // Calculate the error
+        for (int i = 0; i < numClasses; i++) {
+            double expected = i == correctAnswer ? 1 : 0;  // The correct class is expected to be 1
+            errors.set(i, networkOutput.get(i) - expected);  // Calculate the error
+        }
+
+        return errors;
     }
 
     /**
      * Finds the index of the maximum value in the array.
      *
-     * @param in Array of values to search through.
+     * @param in Values to search through.
      * @return The index of the maximum value.
      */
-    private int getMaxIndex(double[] in) {
+    private int getMaxIndex(Tensor in) {
         double max = Double.NEGATIVE_INFINITY;  // Initialize with the smallest possible value
         int index = 0;
 
-            for (int i = 0; i < in.length; i++) {
-                if (in[i] > max) {
-                    max = in[i];
+            for (int i = 0; i < in.size(); i++) {
+                if (in.get(i) > max) {
+                    max = in.get(i);
                     index = i;
                 }
             }
@@ -96,19 +205,133 @@ public class NeuralNetwork implements Serializable {
 
     /**
      * Makes a prediction (guess) based on the input image.
+     * Safe to call from several threads at once; each thread gets its own execution context.
      *
      * @param image The input image to be classified.
      * @return The predicted label for the image.
      */
     public int guess(Image image) {
-        int guess = -1;
-            List<double[][]> inList = new ArrayList<>();
-            inList.add(multiply(image.getData(), (1.0 / scaleFactor)));  // Normalize the input data
+        return guess(image, _threadContexts.get());
+    }
+
+    /**
+     * Makes a prediction (guess) based on the input image using the caller's execution context.
+     *
+     * @param image The input image to be classified.
+     * @param context Working state owned by the calling thread.
+     * @return The predicted label for the image.
+     */
+    public int guess(Image image, ExecutionContext context) {
+        Tensor input = context.normalize(image.getData(), 1.0 / scaleFactor);  // Normalize the input data
+
+        Tensor out = context.forward(input);  // Get the output from the network
+        return getMaxIndex(out);  // Find the index of the maximum output value
+    }
+
+    /**
+     * Predicts labels for a list of images, running them through each layer in stacked batches.
+     *
+     * @param images The images to classify.
+     * @return The predicted label for each image, in the same order.
+     */
+    public int[] guessBatch(List<Image> images) {
+        int[] guesses = new int[images.size()];
+
+        for (int start = 0; start < images.size(); start += INFERENCE_BATCH_SIZE) {
+            int end = Math.min(start + INFERENCE_BATCH_SIZE, images.size());
+            Tensor out = forwardBatch(images, start, end);
+
+            for (int n = 0; n < end - start; n++) {
+                guesses[start + n] = getMaxIndex(out.slice(n));
+            }
+        }
+
+        return guesses;
+    }
 
-            double[] out = _layers.get(0).getOutput(inList);  // Get the output from the network
-            guess = getMaxIndex(out);  // Find the index of the maximum output value
+    /**
+     * Computes class probabilities for one image. Safe to call from several threads at once.
+     *
+     * @param image The image to classify.
+     * @return The probability of each class.
+     * @see #predictProba(List)
+     */
+    public float[] predictProba(Image image) {
+        ExecutionContext context = _threadContexts.get();
+        Tensor input = context.normalize(image.getData(), 1.0 / scaleFactor);  // Normalize the input data
+        return probabilities(context.forward(input));
+    }
+
+    /**
+     * Computes class probabilities for a list of images. A network ending in a
+     * {@link SoftmaxCrossEntropyLayer} already outputs probabilities trained against cross-entropy;
+     * otherwise a softmax is applied to the output scores.
+     *
+     * @param images The images to classify.
+     * @return One row of class probabilities per image, in the same order.
+     */
+    public float[][] predictProba(List<Image> images) {
+        float[][] probabilities = new float[images.size()][];
+
+        for (int start = 0; start < images.size(); start += INFERENCE_BATCH_SIZE) {
+            int end = Math.min(start + INFERENCE_BATCH_SIZE, images.size());
+            Tensor out = forwardBatch(images, start, end);
 
-        return guess;
+            for (int n = 0; n < end - start; n++) {
+                probabilities[start + n] = probabilities(out.slice(n));
+            }
+        }
+
+        return probabilities;
+    }
+
+    /**
+     * Stacks a range of images into one normalized (batch, 1, rows, columns) tensor and runs it through every layer.
+     *
+     * @param images The images to draw from.
+     * @param start Index of the first image, inclusive.
+     * @param end Index of the last image, exclusive.
+     * @return The network's outputs, one row per image.
+     */
+    private Tensor forwardBatch(List<Image> images, int start, int end) {
+        double[][] first = images.get(start).getData();
+        int rows = first.length;
+        int columns = first[0].length;
+        double scale = 1.0 / scaleFactor;
+
+        Tensor batch = new Tensor(end - start, 1, rows, columns);
+        double[] data = batch.getData();
+        int i = 0;
+
+        for (int n = start; n < end; n++) {
+            for (double[] row : images.get(n).getData()) {
+                for (int c = 0; c < columns; c++) {
+                    data[i++] = row[c] * scale;  // Normalize the input data
+                }
+            }
+        }
+
+        for (Layer layer : _layers) {
+            batch = layer.forwardBatch(batch);
+        }
+
+        return batch.reshape(end - start, batch.size() / (end - start));
+    }
+
+    /**
+     * Converts one row of network output into probabilities, applying a softmax unless the last layer already did.
+     */
+    private float[] probabilities(Tensor output) {
+        int numClasses = output.size();
+        double[] scores = output.toArray();
+        boolean normalized = _layers.get(_layers.size() - 1) instanceof SoftmaxCrossEntropyLayer;
+        double logSumExp = normalized ? 0 : SoftmaxCrossEntropyLayer.logSumExp(scores, 0, numClasses);
+
+        float[] probabilities = new float[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            probabilities[i] = (float) (normalized ? scores[i] : Math.exp(scores[i] - logSumExp));
+        }
+        return probabilities;
     }
 
     /**
@@ -119,10 +342,10 @@ public class NeuralNetwork implements Serializable {
      */
     public float test(List<Image> images) {
         int correct = 0;
+        int[] guesses = guessBatch(images);  // Make a prediction for each image
 
-            for (Image img : images) {
-                int guess = guess(img);  // Make a prediction for each image
-                if (guess == img.getLabel()) {
+            for (int i = 0; i < guesses.length; i++) {
+                if (guesses[i] == images.get(i).getLabel()) {
                     correct++;  // Increment if the guess is correct
                 }
             }
@@ -131,20 +354,42 @@ public class NeuralNetwork implements Serializable {
     }
 
     /**
-     * Trains the network on a set of images.
+     * Trains the network on a set of images, updating the weights after every image.
      *
      * @param images List of images to train the network on.
      */
     public void train(List<Image> images) {
+        train(images, 1);
+    }
+
+    /**
+     * Trains the network on a set of images in mini-batches. Gradients are summed over each
+     * batch and applied once, averaged over the batch, so the learning rate scales the mean gradient.
+     *
+     * @param images List of images to train the network on.
+     * @param batchSize Number of images per weight update; 1 updates after every image.
+     */
+    public void train(List<Image> images, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, was " + batchSize);
+        }
+
+        ExecutionContext context = createContext();
+
         try {
+            int inBatch = 0;
+
             for (Image img : images) {
-                List<double[][]> inList = new ArrayList<>();
-                inList.add(multiply(img.getData(), (1.0 / scaleFactor)));  // Normalize the input data
+                accumulateGradients(img, context);
 
-                double[] out = _layers.get(0).getOutput(inList);  // Forward pass through the network
-                double[] dldO = getErrors(out, img.getLabel());  // Calculate the errors
+                if (++inBatch == batchSize) {
+                    context.applyGradients(1.0 / inBatch);  // One weight update per batch
+                    inBatch = 0;
+                }
+            }
 
-                _layers.get((_layers.size() - 1)).backPropagation(dldO);  // Backpropagation
+            if (inBatch > 0) {
+                context.applyGradients(1.0 / inBatch);  // Apply the final, partial batch
             }
         } catch (Exception e) {
             System.err.println("Error during training: " + e.getMessage());
@@ -152,6 +397,55 @@ public class NeuralNetwork implements Serializable {
         }
     }
 
+    /**
+     * Trains the network for one epoch of a data pipeline, applying the averaged gradients once
+     * per pipeline batch. The batches are prepared in the background while this thread trains.
+     *
+     * @param pipeline The pipeline to take {@link DataPipeline#getBatchesPerEpoch()} batches from.
+     */
+    public void train(DataPipeline pipeline) {
+        ExecutionContext context = createContext();
+
+        try {
+            for (int b = 0; b < pipeline.getBatchesPerEpoch(); b++) {
+                DataPipeline.Batch batch = pipeline.next();
+
+                for (int n = 0; n < batch.size(); n++) {
+                    accumulateGradients(batch.input(n), batch.label(n), context);
+                }
+                context.applyGradients(1.0 / batch.size());  // One weight update per batch
+            }
+        } catch (Exception e) {
+            System.err.println("Error during training: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Runs one image forward and backward, adding its weight gradients to the context.
+     *
+     * @param img The training image.
+     * @param context Working state owned by the calling thread.
+     */
+    void accumulateGradients(Image img, ExecutionContext context) {
+        Tensor input = context.normalize(img.getData(), 1.0 / scaleFactor);  // Normalize the input data
+        accumulateGradients(input, img.getLabel(), context);
+    }
+
+    /**
+     * Runs one already normalized image forward and backward, adding its weight gradients to the context.
+     *
+     * @param input The normalized image.
+     * @param label The image's label.
+     * @param context Working state owned by the calling thread.
+     */
+    void accumulateGradients(Tensor input, int label, ExecutionContext context) {
+        Tensor out = context.forward(input);  // Forward pass through the network
+        Tensor dldO = getErrors(out, label, context.errorBuffer(out.size()));  // Calculate the errors
+
+        context.backward(dldO);  // Backpropagation, accumulating the gradients
+    }
+
     public List<LayerInfo> describeLayers() {
         if (_layers == null || _layers.isEmpty()) {
             return Collections.emptyList();
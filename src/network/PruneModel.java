@@ -0,0 +1,71 @@
+package network;
+
+import data.DataReader;
+import data.Image;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Prunes the fully connected layers of a saved network by weight magnitude and reports what it costs.
+ * <p>
+ * The smallest-magnitude weights are removed until the target sparsity is reached, and the rest
+ * are stored sparsely, so the saved model shrinks. With a positive epoch count the pruned network
+ * is then fine-tuned on {@code data/mnist_train.csv}; pruned weights stay zero while it trains.
+ * The tool prints test accuracy, compiled per-image latency and file size before and after.
+ * <p>
+ * Usage: {@code java network.PruneModel [input.ser] [output.ser] [sparsity] [fineTuneEpochs]}
+ */
+public class PruneModel {
+
+    public static void main(String[] args) {
+        String inputPath = args.length > 0 ? args[0] : "out/trained_network.ser";
+        String outputPath = args.length > 1 ? args[1] : "out/trained_network_pruned.ser";
+        double sparsity = args.length > 2 ? Double.parseDouble(args[2]) : 0.9;
+        int fineTuneEpochs = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        long SEED = 123;
+
+        NeuralNetwork network = Main.loadNetwork(inputPath);
+        if (network == null) {
+            return;  // loadNetwork has already reported the error
+        }
+
+        List<Image> imagesTest = new DataReader().readData("data/mnist_test.csv");
+        report("Dense", network, imagesTest);
+
+        network.prune(sparsity);
+        report("Pruned", network, imagesTest);
+
+        if (fineTuneEpochs > 0) {
+            List<Image> imagesTrain = new DataReader().readData("data/mnist_train.csv");
+            Random random = new Random(SEED);
+
+            for (int epoch = 1; epoch <= fineTuneEpochs; epoch++) {
+                Collections.shuffle(imagesTrain, random);
+                network.train(imagesTrain);
+                report("Fine-tuned (epoch " + epoch + ")", network, imagesTest);
+            }
+        }
+
+        Main.saveNetwork(network, outputPath);
+        long before = new File(inputPath).length();
+        long after = new File(outputPath).length();
+        System.out.printf("Model file: %d bytes -> %d bytes (%.1fx smaller)%n", before, after, (double) before / after);
+    }
+
+    /**
+     * Prints the network's test accuracy and the per-image latency of its compiled plan.
+     */
+    private static void report(String label, NeuralNetwork network, List<Image> imagesTest) {
+        InferencePlan plan = network.compile();
+        plan.test(imagesTest);  // Warm up the kernels before timing them
+
+        long start = System.nanoTime();
+        float rate = plan.test(imagesTest);
+        long time = System.nanoTime() - start;
+
+        System.out.printf("%s accuracy: %.4f (%.1f us/image)%n", label, rate, time / 1e3 / imagesTest.size());
+    }
+}
@@ -0,0 +1,67 @@
+package network;
+
+import data.DataReader;
+import data.Image;
+
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Converts a saved network into an int8 {@link QuantizedNetwork} and reports what it costs.
+ * <p>
+ * Activation scales are calibrated on a seeded random sample of {@code data/mnist_test.csv}.
+ * The tool prints weight memory, test accuracy and per-image latency for the original and the
+ * quantized model, then saves the quantized model.
+ * <p>
+ * Usage: {@code java network.QuantizeModel [input.ser] [output.ser] [calibrationImages]}
+ */
+public class QuantizeModel {
+
+    public static void main(String[] args) {
+        String inputPath = args.length > 0 ? args[0] : "out/trained_network.ser";
+        String outputPath = args.length > 1 ? args[1] : "out/trained_network_int8.ser";
+        int calibrationSize = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        long SEED = 123;
+
+        NeuralNetwork network = Main.loadNetwork(inputPath);
+        if (network == null) {
+            return;  // loadNetwork has already reported the error
+        }
+
+        List<Image> imagesTest = new DataReader().readData("data/mnist_test.csv");
+        List<Image> calibration = new ArrayList<>(imagesTest);
+        Collections.shuffle(calibration, new Random(SEED));
+        calibration = calibration.subList(0, Math.min(calibrationSize, calibration.size()));
+
+        QuantizedNetwork quantized = QuantizedNetwork.quantize(network, calibration);
+
+        long weights = quantized.getWeightCount();
+        System.out.printf("Weights: %d; double %d bytes, float32 %d bytes, int8 %d bytes (%.1fx smaller than double)%n",
+                weights, weights * 8, weights * 4, quantized.getWeightBytes(), weights * 8.0 / quantized.getWeightBytes());
+
+        long start = System.nanoTime();
+        float doubleRate = network.test(imagesTest);
+        long doubleTime = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        float int8Rate = quantized.test(imagesTest);
+        long int8Time = System.nanoTime() - start;
+
+        System.out.printf("Double accuracy: %.4f (%.1f us/image)%n", doubleRate, doubleTime / 1e3 / imagesTest.size());
+        System.out.printf("Int8 accuracy:   %.4f (%.1f us/image)%n", int8Rate, int8Time / 1e3 / imagesTest.size());
+        System.out.printf("Accuracy drop:   %.4f%n", doubleRate - int8Rate);
+
+        try (FileOutputStream fileOut = new FileOutputStream(outputPath);
+             ObjectOutputStream out = new ObjectOutputStream(fileOut)) {
+            out.writeObject(quantized);
+            System.out.println("Quantized network saved to " + outputPath);
+        } catch (Exception e) {
+            System.err.println("Error saving quantized network: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
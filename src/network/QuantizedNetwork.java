@@ -0,0 +1,206 @@
+package network;
+
+import Layers.ConvolutionPoolLayer;
+import Layers.Layer;
+import Layers.LayerContext;
+import Layers.QuantizedLayer;
+import data.Image;
+import data.Tensor;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * An int8 inference copy of a trained {@link NeuralNetwork}.
+ * <p>
+ * Weights are quantized per output channel when the copy is made. Activation scales are
+ * calibrated by running sample images through the original network and recording the largest
+ * magnitude seen at each layer boundary. After that, every layer runs on int8 values with int
+ * accumulators. Only the last layer's scores are produced in float, so the argmax is not
+ * limited to 255 levels.
+ */
+public class QuantizedNetwork implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final QuantizedLayer[] _layers;  // Quantized copies of the network's layers, in order
+    private final double scaleFactor;         // Scale factor used for normalizing input data
+
+    private transient ThreadLocal<Workspace> _workspaces;  // Activation buffers for guess(), one per calling thread
+
+    private QuantizedNetwork(QuantizedLayer[] layers, double scaleFactor) {
+        _layers = layers;
+        this.scaleFactor = scaleFactor;
+        _workspaces = ThreadLocal.withInitial(this::createWorkspace);
+    }
+
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        _workspaces = ThreadLocal.withInitial(this::createWorkspace);
+    }
+
+    /**
+     * Quantizes a trained network, calibrating the activation scales on sample images.
+     *
+     * @param network The trained network; it is read but not changed.
+     * @param calibration Images representative of what the quantized network will see.
+     * @return The int8 copy of the network.
+     */
+    public static QuantizedNetwork quantize(NeuralNetwork network, List<Image> calibration) {
+        List<Layer> layers = ConvolutionPoolLayer.unfuse(network._layers);  // Calibrate the convolution output of fused layers too
+        double[] maxMagnitude = new double[layers.size() + 1];  // Entry l is the largest |value| entering layer l
+        ExecutionContext input = network.createContext();
+        LayerContext[] contexts = new LayerContext[layers.size()];
+        for (int l = 0; l < contexts.length; l++) {
+            contexts[l] = layers.get(l).createContext();
+        }
+
+        for (Image image : calibration) {
+            Tensor activation = input.normalize(image.getData(), 1.0 / network.scaleFactor);
+
+            for (int l = 0; l <= layers.size(); l++) {
+                double[] data = activation.getData();
+                for (int k = activation.getOffset(); k < activation.getOffset() + activation.size(); k++) {
+                    maxMagnitude[l] = Math.max(maxMagnitude[l], Math.abs(data[k]));
+                }
+
+                if (l < layers.size()) {
+                    activation = layers.get(l).forward(activation, contexts[l]);
+                }
+            }
+        }
+
+        QuantizedLayer[] quantized = new QuantizedLayer[layers.size()];
+        for (int l = 0; l < quantized.length; l++) {
+            quantized[l] = layers.get(l).quantize(QuantizedLayer.scaleFor(maxMagnitude[l]), QuantizedLayer.scaleFor(maxMagnitude[l + 1]));
+        }
+
+        return new QuantizedNetwork(quantized, network.scaleFactor);
+    }
+
+    /**
+     * Computes the network's output scores for an image.
+     *
+     * @param image The image to classify.
+     * @return The scores, held in a per-thread buffer until the calling thread's next call.
+     */
+    public float[] scores(Image image) {
+        Workspace workspace = _workspaces.get();
+        double scale = 1.0 / scaleFactor;
+        float inputScale = _layers[0].getInputScale();
+        double[][] pixels = image.getData();
+        if (workspace.activations[0] == null || workspace.activations[0].length != pixels.length * pixels[0].length) {
+            workspace.activations[0] = new byte[pixels.length * pixels[0].length];
+            workspace.widened = new int[Math.max(workspace.widened.length, workspace.activations[0].length)];
+        }
+        byte[] input = workspace.activations[0];
+
+        int i = 0;
+        for (double[] row : pixels) {
+            for (double pixel : row) {
+                input[i++] = QuantizedLayer.quantize(pixel * scale, inputScale);  // Normalize and quantize the input data
+            }
+        }
+
+        int last = _layers.length - 1;
+        for (int l = 0; l < last; l++) {
+            _layers[l].forward(workspace.activations[l], workspace.activations[l + 1], null, workspace.accumulators, workspace.widened);
+        }
+        _layers[last].forward(workspace.activations[last], null, workspace.scores, workspace.accumulators, workspace.widened);
+
+        return workspace.scores;
+    }
+
+    /**
+     * Makes a prediction (guess) based on the input image. Safe to call from several threads at once.
+     *
+     * @param image The input image to be classified.
+     * @return The predicted label for the image.
+     */
+    public int guess(Image image) {
+        float[] scores = scores(image);
+        int index = 0;
+
+        for (int j = 1; j < scores.length; j++) {
+            if (scores[j] > scores[index]) {
+                index = j;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Tests the network on a set of images and calculates the accuracy.
+     *
+     * @param images List of images to test the network on.
+     * @return The fraction of images classified correctly.
+     */
+    public float test(List<Image> images) {
+        int correct = 0;
+
+        for (Image image : images) {
+            if (guess(image) == image.getLabel()) {
+                correct++;
+            }
+        }
+
+        return (float) correct / images.size();
+    }
+
+    /**
+     * @return Number of weights across all layers.
+     */
+    public long getWeightCount() {
+        long count = 0;
+        for (QuantizedLayer layer : _layers) {
+            count += layer.getWeightCount();
+        }
+        return count;
+    }
+
+    /**
+     * @return Bytes taken by the int8 weights and their scales across all layers.
+     */
+    public long getWeightBytes() {
+        long bytes = 0;
+        for (QuantizedLayer layer : _layers) {
+            bytes += layer.getWeightBytes();
+        }
+        return bytes;
+    }
+
+    private Workspace createWorkspace() {
+        Workspace workspace = new Workspace();
+        workspace.activations = new byte[_layers.length][];
+        int largestInput = 0;
+        int largestScratch = 0;
+
+        for (int l = 0; l < _layers.length; l++) {
+            if (l > 0) {
+                workspace.activations[l] = new byte[_layers[l - 1].getOutputElements()];
+                largestInput = Math.max(largestInput, workspace.activations[l].length);
+            }
+            largestScratch = Math.max(largestScratch, _layers[l].getScratchLength());
+        }
+
+        workspace.accumulators = new int[largestScratch];
+        workspace.widened = new int[largestInput];
+        workspace.scores = new float[_layers[_layers.length - 1].getOutputElements()];
+        return workspace;
+    }
+
+    /**
+     * Activation buffers for one thread. The network input buffer is sized on first use.
+     */
+    private static final class Workspace {
+        byte[][] activations;  // Input of each layer, as int8
+        int[] accumulators;    // Integer sums for the layer being run
+        int[] widened;         // Input of the layer being run, widened to int where a kernel needs it
+        float[] scores;        // Output of the last layer
+    }
+}
@@ -0,0 +1,92 @@
+package network;
+
+import Layers.ConvolutionLayer;
+import Layers.LayerContext;
+import data.Tensor;
+
+import java.util.Random;
+
+/**
+ * Times the dense (im2col + gemm) and sparse (scatter) kernels of a first convolution layer on
+ * synthetic 28x28 inputs over a range of densities, and prints the density where they cross over.
+ * Each sample runs one forward and one backward pass, as in training.
+ * <p>
+ * Usage: {@code java -cp out network.SparseConvolutionBenchmark [numFilters] [filterSize] [stepSize] [samples]}
+ */
+public class SparseConvolutionBenchmark {
+    private static final double[] DENSITIES = {0.02, 0.05, 0.1, 0.15, 0.2, 0.25, 0.3, 0.4, 0.5, 0.75, 1.0};
+    private static final int ROUNDS = 5;  // Timed rounds per kernel and density; the fastest is reported
+
+    public static void main(String[] args) {
+        long SEED = 123;
+        int numFilters = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int filterSize = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int stepSize = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : 2000;
+
+        ConvolutionLayer layer = new ConvolutionLayer(filterSize, stepSize, 1, 28, 28, SEED, numFilters, 0.1);
+        LayerContext context = layer.createContext();
+        double defaultThreshold = layer.getSparseThreshold();
+        Random random = new Random(SEED);
+        Tensor error = new Tensor(layer.getOutputElements());
+        for (int k = 0; k < error.size(); k++) {
+            error.set(k, random.nextGaussian());
+        }
+
+        System.out.printf("Filters: %d, filter size: %d, step size: %d, samples: %d%n", numFilters, filterSize, stepSize, samples);
+        System.out.printf("%8s %12s %12s %8s %10s%n", "density", "dense us", "sparse us", "speedup", "max diff");
+        double crossover = 0;
+
+        for (double density : DENSITIES) {
+            Tensor[] inputs = new Tensor[samples];
+            for (int n = 0; n < samples; n++) {
+                inputs[n] = new Tensor(1, 28, 28);
+                for (int k = 0; k < inputs[n].size(); k++) {
+                    if (random.nextDouble() < density) {
+                        inputs[n].getData()[k] = random.nextDouble();
+                    }
+                }
+            }
+
+            layer.setSparseThreshold(0);
+            double[] dense = layer.forward(inputs[0], context).toArray();
+            double denseTime = time(layer, context, inputs, error);
+
+            layer.setSparseThreshold(1);
+            double[] sparse = layer.forward(inputs[0], context).toArray();
+            double sparseTime = time(layer, context, inputs, error);
+
+            double maxDiff = 0;
+            for (int k = 0; k < dense.length; k++) {
+                maxDiff = Math.max(maxDiff, Math.abs(dense[k] - sparse[k]));
+            }
+
+            if (sparseTime < denseTime) {
+                crossover = density;
+            }
+            System.out.printf("%8.2f %12.2f %12.2f %7.2fx %10.1e%n", density, denseTime, sparseTime, denseTime / sparseTime, maxDiff);
+        }
+
+        System.out.printf("Sparse kernel is faster up to density %.2f (default threshold %.2f)%n",
+                crossover, defaultThreshold);
+    }
+
+    /**
+     * @return The best per-sample time over {@link #ROUNDS} rounds, in microseconds.
+     */
+    private static double time(ConvolutionLayer layer, LayerContext context, Tensor[] inputs, Tensor error) {
+        double best = Double.MAX_VALUE;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            for (Tensor input : inputs) {
+                layer.forward(input, context);
+                layer.backward(error, context);
+            }
+            best = Math.min(best, (System.nanoTime() - start) / 1e3 / inputs.length);
+            layer.applyGradients(context, 0);  // Clear the accumulated gradients without moving the weights
+        }
+
+        return best;
+    }
+}
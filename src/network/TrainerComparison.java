@@ -0,0 +1,87 @@
+package network;
+
+import data.DataReader;
+import data.Image;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.util.Collections.shuffle;
+
+/**
+ * Trains the default topology three ways, single-threaded {@link NeuralNetwork#train(List)},
+ * {@link DataParallelTrainer} and {@link HogwildTrainer}, and prints throughput and accuracy
+ * for each so the trainers can be compared on the same data.
+ * <p>
+ * Usage: {@code java -cp out network.TrainerComparison [epochs] [threads] [batchSize]}
+ */
+public class TrainerComparison {
+
+    public static void main(String[] args) {
+        long SEED = 123;
+        int epochs = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int batchSize = args.length > 2 ? Integer.parseInt(args[2]) : 32;
+
+        List<Image> imagesTest;
+        List<Image> imagesTrain;
+        try {
+            imagesTest = new DataReader().readData("data/mnist_test.csv");
+            imagesTrain = new DataReader().readData("data/mnist_train.csv");
+        } catch (IllegalArgumentException e) {
+            System.err.println("Error loading data: " + e.getMessage());
+            return;
+        }
+
+        System.out.println("Epochs: " + epochs + ", threads: " + threads + ", batch size: " + batchSize);
+
+        report("train() single-threaded", epochs, imagesTrain, imagesTest, SEED,
+                (network, images) -> network.train(images));
+
+        report("DataParallelTrainer", epochs, imagesTrain, imagesTest, SEED, (network, images) -> {
+            try (DataParallelTrainer trainer = new DataParallelTrainer(network, threads)) {
+                trainer.train(images, batchSize);
+            }
+        });
+
+        report("HogwildTrainer", epochs, imagesTrain, imagesTest, SEED, (network, images) -> {
+            try (HogwildTrainer trainer = new HogwildTrainer(network, threads)) {
+                trainer.train(images);
+            }
+        });
+    }
+
+    /**
+     * Trains a freshly built network with the given strategy and prints samples per second and test accuracy.
+     */
+    private static void report(String name, int epochs, List<Image> imagesTrain, List<Image> imagesTest, long SEED, Strategy strategy) {
+        NeuralNetwork network = buildNetwork(SEED);
+        List<Image> order = new ArrayList<>(imagesTrain);
+        Random shuffleRandom = new Random(SEED);
+
+        long trainingNanos = 0;
+        for (int i = 0; i < epochs; i++) {
+            shuffle(order, shuffleRandom);
+            long start = System.nanoTime();
+            strategy.train(network, order);
+            trainingNanos += System.nanoTime() - start;
+        }
+
+        double samplesPerSecond = (double) epochs * order.size() / (trainingNanos / 1e9);
+        float accuracy = network.test(imagesTest);
+        System.out.printf("%-26s %10.1f samples/s   accuracy %.4f%n", name, samplesPerSecond, accuracy);
+    }
+
+    private static NeuralNetwork buildNetwork(long SEED) {
+        NetworkBuilder builder = new NetworkBuilder(28, 28, 256 * 100);
+        builder.addConvolutionLayer(8, 5, 1, 0.1, SEED);
+        builder.addMaxPoolLayer(3, 2);
+        builder.addFullyConnectedLayer(10, 0.1, SEED);
+        return builder.buildNetwork();
+    }
+
+    private interface Strategy {
+        void train(NeuralNetwork network, List<Image> images);
+    }
+}
@@ -71,11 +71,11 @@ public class ModelEvaluator {
         if (network == null || samples == null) {
             return Collections.emptyList();
         }
+        List<Image> shown = samples.subList(0, Math.max(0, Math.min(limit, samples.size())));
+        int[] guesses = network.guessBatch(shown);
         List<String> predictions = new ArrayList<>();
-        for (int i = 0; i < limit && i < samples.size(); i++) {
-            Image image = samples.get(i);
-            int guess = network.guess(image);
-            predictions.add(String.format("Label %d -> %d", image.getLabel(), guess));
+        for (int i = 0; i < guesses.length; i++) {
+            predictions.add(String.format("Label %d -> %d", shown.get(i).getLabel(), guesses[i]));
         }
         return predictions;
     }
@@ -87,9 +87,10 @@ public class ModelEvaluator {
         }
         int[][] matrix = new int[classCount][classCount];
 
-        for (Image sample : dataset) {
-            int actual = clampLabel(sample.getLabel(), classCount);
-            int predicted = clampLabel(network.guess(sample), classCount);
+        int[] guesses = network.guessBatch(dataset);
+        for (int i = 0; i < guesses.length; i++) {
+            int actual = clampLabel(dataset.get(i).getLabel(), classCount);
+            int predicted = clampLabel(guesses[i], classCount);
             matrix[actual][predicted]++;
         }
         monitor.record("Confusion matrix built for " + classCount + " classes.");
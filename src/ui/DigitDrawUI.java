@@ -1,6 +1,7 @@
 package ui;
 
 import data.Image;
+import network.InferencePlan;
 import network.Main;
 import network.NeuralNetwork;
 import product.ModelLocator;
@@ -20,10 +21,11 @@ public class DigitDrawUI extends JPanel {
     private final JPanel drawingPanel;
     private final BufferedImage drawingImage = new BufferedImage(GRID_SIZE, GRID_SIZE, BufferedImage.TYPE_BYTE_GRAY);
     private NeuralNetwork network;
+    private InferencePlan plan;  // Compiled copy of the network that serves the predictions
     private PredictionListener predictionListener;
 
     public DigitDrawUI(NeuralNetwork network) {
-        this.network = network;
+        setNetwork(network);
         setLayout(new BorderLayout(4, 4));
         setPreferredSize(new Dimension(320, 320));
         setMinimumSize(new Dimension(320, 320));
@@ -69,6 +71,7 @@ public class DigitDrawUI extends JPanel {
 
     public void setNetwork(NeuralNetwork network) {
         this.network = network;
+        this.plan = network == null ? null : network.compile();
     }
 
     public void setPredictionListener(PredictionListener listener) {
@@ -137,7 +140,7 @@ public class DigitDrawUI extends JPanel {
             }
         }
         Image sample = new Image(data, -1);
-        int prediction = network.guess(sample);
+        int prediction = plan.guess(sample);
         JOptionPane.showMessageDialog(this, "This looks like a " + prediction + ".");
 
         if (predictionListener != null) {